@@ -1,8 +1,11 @@
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.Arrays;
-import java.util.stream.Stream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Day02 {
     private static final int QUERIED_INDEX = 0;
@@ -12,11 +15,7 @@ public class Day02 {
     private static final int HALT = 99;
 
     public static void main(String[] args) throws IOException {
-        var input = Files.readString(Paths.get("input02.txt")).trim();
-
-        var numbers = Stream.of(input.split(","))
-                .mapToInt(Integer::parseInt)
-                .toArray();
+        var numbers = Day09.ProgramLoader.loadInts(Paths.get("input02.txt"));
 
         // Part 01
         System.out.println(execute(copyOf(numbers), 12, 2));
@@ -25,16 +24,174 @@ public class Day02 {
     }
 
     private static void part02(int[] numbers) {
-        for (int noun = 0; noun <= 99; noun++) {
-            for (int verb = 0; verb <= 99; verb++) {
-                var result = execute(copyOf(numbers), noun, verb);
+        var pair = solve(numbers, 99, 99, TARGET_VALUE);
+        if (pair != null) {
+            System.out.println(100 * pair[0] + pair[1]);
+        }
+    }
+
+    // Solves the symbolic result for every noun instead of running the program, falls back to searching
+    // when the result depends on noun or verb used as an address or as code
+    static int[] solve(int[] numbers, int maxNoun, int maxVerb, int target) {
+        var result = symbolic(numbers);
+        if (result == null) return search(numbers, maxNoun, maxVerb, target);
+
+        for (var noun = 0; noun <= maxNoun; noun++) {
+            var row = result.withNoun(noun);
+            switch (row.verbDegree()) {
+                case 0 -> {
+                    if ((int) row.coefficient(0) == target && matches(numbers, noun, 0, target)) return new int[]{noun, 0};
+                }
+                case 1 -> {
+                    // The interpreter wraps at 32 bits, so slope * verb = difference is solved modulo 2^32
+                    var slope = (int) row.coefficient(1);
+                    var difference = target - (int) row.coefficient(0);
+                    var shift = Integer.numberOfTrailingZeros(slope);
+                    if (shift == 32 ? difference != 0 : (difference & ((1 << shift) - 1)) != 0) continue;
+
+                    // Solutions repeat every 2^(32 - shift) verbs, starting at the smallest non-negative one
+                    var first = 0L;
+                    var step = 1L;
+                    if (shift < 32) {
+                        var solution = (difference >> shift) * inverse(slope >> shift);
+                        step = 1L << (32 - shift);
+                        first = Integer.toUnsignedLong(solution) & (step - 1);
+                    }
+                    for (var verb = first; verb <= maxVerb; verb += step) {
+                        if (matches(numbers, noun, (int) verb, target)) return new int[]{noun, (int) verb};
+                    }
+                }
+                default -> {
+                    for (var verb = 0; verb <= maxVerb; verb++) {
+                        if ((int) row.evaluate(verb) == target && matches(numbers, noun, verb, target)) return new int[]{noun, verb};
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    // Multiplicative inverse of an odd number modulo 2^32, each Newton step doubles the number of correct bits
+    private static int inverse(int odd) {
+        var inverse = odd;
+        for (var i = 0; i < 4; i++) {
+            inverse *= 2 - odd * inverse;
+        }
+        return inverse;
+    }
+
+    // One concrete run confirms a solved pair, addresses computed from noun or verb may point outside the program
+    private static boolean matches(int[] numbers, int noun, int verb, int target) {
+        return PairSearch.attempt(copyOf(numbers), noun, verb) == target;
+    }
+
+    // Runs the program once with every cell as a polynomial in noun and verb, cells written through an address
+    // that depends on them are unknown, null when the result or the control flow is unknown
+    static Polynomial symbolic(int[] numbers) {
+        var memory = new Polynomial[numbers.length];
+        for (var i = 0; i < numbers.length; i++) {
+            memory[i] = Polynomial.constant(numbers[i]);
+        }
+        memory[1] = Polynomial.NOUN;
+        memory[2] = Polynomial.VERB;
 
-                if (result == TARGET_VALUE) {
-                    System.out.println(100 * noun + verb);
+        for (var currentIndex = 0; currentIndex < memory.length; currentIndex += 4) {
+            var instruction = memory[currentIndex];
+            if (instruction == null || !instruction.isConstant()) return null;
+
+            var opCode = (int) instruction.coefficient(0);
+            if (opCode == HALT) return memory[QUERIED_INDEX];
+            if (opCode != ADD && opCode != MUL) return Polynomial.constant(-1);
+            if (currentIndex + 3 >= memory.length) return null;
+
+            var target = address(memory, currentIndex + 3);
+            if (target < 0) return null;
+
+            var a = address(memory, currentIndex + 1);
+            var b = address(memory, currentIndex + 2);
+            if (a < 0 || b < 0 || memory[a] == null || memory[b] == null) {
+                memory[target] = null;
+            } else {
+                memory[target] = opCode == ADD ? memory[a].plus(memory[b]) : memory[a].times(memory[b]);
+            }
+        }
+        return null;
+    }
+
+    // Constant address inside the program, -1 otherwise
+    private static int address(Polynomial[] memory, int index) {
+        var cell = memory[index];
+        if (cell == null || !cell.isConstant()) return -1;
+
+        var value = (int) cell.coefficient(0);
+        return value >= 0 && value < memory.length ? value : -1;
+    }
+
+    // The smallest noun/verb pair that makes the program produce the target, or null when there is none
+    static int[] search(int[] numbers, int maxNoun, int maxVerb, int target) {
+        var verbs = maxVerb + 1;
+        var found = new AtomicLong(PairSearch.NONE);
+        var scratch = ThreadLocal.withInitial(() -> new int[numbers.length]);
+        ForkJoinPool.commonPool().invoke(new PairSearch(numbers, target, verbs, 0, (long) (maxNoun + 1) * verbs, found, scratch));
+
+        var index = found.get();
+        return index == PairSearch.NONE ? null : new int[]{(int) (index / verbs), (int) (index % verbs)};
+    }
+
+    // Splits the flattened noun/verb range across the pool, every worker refills its own scratch copy
+    // of the program. found holds the smallest matching index so far, ranges above it are skipped
+    static class PairSearch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int THRESHOLD = 256;
+        static final long NONE = Long.MAX_VALUE;
+
+        private final int[] numbers;
+        private final int target;
+        private final int verbs;
+        private final long from;
+        private final long to;
+        private final AtomicLong found;
+        private final ThreadLocal<int[]> scratch;
+
+        PairSearch(int[] numbers, int target, int verbs, long from, long to, AtomicLong found, ThreadLocal<int[]> scratch) {
+            this.numbers = numbers;
+            this.target = target;
+            this.verbs = verbs;
+            this.from = from;
+            this.to = to;
+            this.found = found;
+            this.scratch = scratch;
+        }
+
+        @Override
+        protected void compute() {
+            if (from >= found.get()) return;
+
+            if (to - from > THRESHOLD) {
+                var middle = (from + to) >>> 1;
+                invokeAll(new PairSearch(numbers, target, verbs, from, middle, found, scratch),
+                        new PairSearch(numbers, target, verbs, middle, to, found, scratch));
+                return;
+            }
+
+            var memory = scratch.get();
+            for (var index = from; index < to && index < found.get(); index++) {
+                System.arraycopy(numbers, 0, memory, 0, numbers.length);
+                if (attempt(memory, (int) (index / verbs), (int) (index % verbs)) == target) {
+                    found.accumulateAndGet(index, Math::min);
                     return;
                 }
             }
         }
+
+        private static int attempt(int[] memory, int noun, int verb) {
+            try {
+                return execute(memory, noun, verb);
+            } catch (ArrayIndexOutOfBoundsException e) {
+                // Larger nouns and verbs can point outside the program
+                return -1;
+            }
+        }
     }
 
     private static int execute(int[] numbers, int noun, int verb) {
@@ -72,4 +229,89 @@ public class Day02 {
     private static int[] copyOf(int[] numbers) {
         return Arrays.copyOf(numbers, numbers.length);
     }
+
+    // Sum of coefficient * noun^i * verb^j, 64-bit wraparound keeps the low 32 bits equal to the int interpreter
+    static class Polynomial {
+        static final Polynomial NOUN = new Polynomial(Map.of(term(1, 0), 1L));
+        static final Polynomial VERB = new Polynomial(Map.of(term(0, 1), 1L));
+
+        private final Map<Long, Long> terms;
+
+        private Polynomial(Map<Long, Long> terms) {
+            this.terms = terms;
+        }
+
+        static Polynomial constant(long value) {
+            return new Polynomial(value == 0 ? Map.of() : Map.of(term(0, 0), value));
+        }
+
+        Polynomial plus(Polynomial other) {
+            var result = new HashMap<>(terms);
+            other.terms.forEach((term, coefficient) -> result.merge(term, coefficient, Long::sum));
+            return of(result);
+        }
+
+        Polynomial times(Polynomial other) {
+            var result = new HashMap<Long, Long>();
+            terms.forEach((term, coefficient) -> other.terms.forEach((otherTerm, otherCoefficient) ->
+                    result.merge(term + otherTerm, coefficient * otherCoefficient, Long::sum)));
+            return of(result);
+        }
+
+        // Folds the noun into the coefficients, leaving a polynomial in the verb only
+        Polynomial withNoun(long noun) {
+            var result = new HashMap<Long, Long>();
+            terms.forEach((term, coefficient) ->
+                    result.merge(term(0, verbPower(term)), coefficient * power(noun, nounPower(term)), Long::sum));
+            return of(result);
+        }
+
+        boolean isConstant() {
+            return terms.keySet().stream().allMatch(term -> term == 0);
+        }
+
+        int verbDegree() {
+            return terms.keySet().stream().mapToInt(Polynomial::verbPower).max().orElse(0);
+        }
+
+        // Coefficient of verb^power once the noun has been folded in
+        long coefficient(int verbPower) {
+            return terms.getOrDefault(term(0, verbPower), 0L);
+        }
+
+        // Only meaningful once the noun has been folded in
+        long evaluate(long verb) {
+            var value = 0L;
+            for (var entry : terms.entrySet()) {
+                value += entry.getValue() * power(verb, verbPower(entry.getKey()));
+            }
+            return value;
+        }
+
+        private static Polynomial of(Map<Long, Long> terms) {
+            terms.values().removeIf(coefficient -> coefficient == 0);
+            return new Polynomial(terms);
+        }
+
+        // Both powers are packed into one key, so multiplying terms is adding their keys
+        private static long term(int nounPower, int verbPower) {
+            return (long) nounPower << 32 | verbPower;
+        }
+
+        private static int nounPower(long term) {
+            return (int) (term >>> 32);
+        }
+
+        private static int verbPower(long term) {
+            return (int) term;
+        }
+
+        private static long power(long base, int exponent) {
+            var result = 1L;
+            for (var i = 0; i < exponent; i++) {
+                result *= base;
+            }
+            return result;
+        }
+    }
 }
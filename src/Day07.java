@@ -1,141 +1,219 @@
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.IntBinaryOperator;
 import java.util.function.ToIntBiFunction;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class Day07 {
     public static void main(String[] args) throws IOException {
-        var input = Files.readString(Paths.get("input07.txt")).trim();
-        var instructions = Stream.of(input.split(","))
-                .mapToInt(Integer::parseInt)
-                .toArray();
+        var instructions = Day09.ProgramLoader.load(Paths.get("input07.txt"));
 
-        allPermutations(instructions, new int[]{0, 1, 2, 3, 4}, Day07::part01Step);
+        var signals = new SignalTrie(0);
+        allPermutations(instructions, new int[]{0, 1, 2, 3, 4}, (program, settings) -> part01Step(program, settings, signals));
         allPermutations(instructions, new int[]{5, 6, 7, 8, 9}, Day07::part02Step);
     }
 
-    private static void allPermutations(int[] instructions, int[] start, ToIntBiFunction<int[], int[]> operator) {
-        var permutations = new ArrayList<int[]>();
-        permute(start, permutations);
-
-        permutations.parallelStream()
+    private static void allPermutations(long[] instructions, int[] start, ToIntBiFunction<long[], int[]> operator) {
+        permutations(start)
                 .mapToInt(settings -> operator.applyAsInt(instructions, settings))
                 .max()
                 .ifPresent(System.out::println);
     }
 
-    private static int part01Step(int[] instructions, int[] phaseSettings) {
-        var ampInput = 0;
-        for (var setting : phaseSettings) {
-            var amplifier = new IntcodeExecutor(instructions);
-            amplifier.pushInput(setting);
-            amplifier.pushInput(ampInput);
-            amplifier.execute();
-            ampInput = amplifier.getOutput();
+    private static int part01Step(long[] instructions, int[] phaseSettings, SignalTrie signals) {
+        // A prefix one short of the full length is never shared, so the last two amplifiers aren't cached
+        var cachedLength = phaseSettings.length - 2;
+
+        var node = signals;
+        for (var i = 0; i < cachedLength; i++) {
+            node = node.next(phaseSettings[i], (setting, signal) -> amplify(instructions, setting, signal));
+        }
+
+        var ampInput = node.signal;
+        for (var i = Math.max(0, cachedLength); i < phaseSettings.length; i++) {
+            ampInput = amplify(instructions, phaseSettings[i], ampInput);
         }
         return ampInput;
     }
 
-    private static int part02Step(int[] instructions, int[] phaseSettings) {
-        var amplifiers = new IntcodeExecutor[phaseSettings.length];
-        var threads = new Thread[amplifiers.length];
+    private static int amplify(long[] instructions, int setting, int ampInput) {
+        var amplifier = new Day09.IntcodeExecutor(instructions);
+        amplifier.addInput(setting);
+        amplifier.addInput(ampInput);
+        if (amplifier.run() != Day09.Status.HAS_OUTPUT) {
+            throw new IllegalStateException("Amplifier produced no signal");
+        }
+        return Math.toIntExact(amplifier.takeOutput());
+    }
 
-        // Tie inputs and outputs together to avoid manual passing
+    private static int part02Step(long[] instructions, int[] phaseSettings) {
+        var amplifiers = new Day09.IntcodeExecutor[phaseSettings.length];
         for (var i = 0; i < amplifiers.length; i++) {
-            amplifiers[i] = new IntcodeExecutor(instructions);
-            threads[i] = new Thread(amplifiers[i]::execute);
+            amplifiers[i] = new Day09.IntcodeExecutor(instructions);
+            amplifiers[i].addInput(phaseSettings[i]);
+        }
+        // Push start value to kickoff the execution
+        amplifiers[0].addInput(0);
+
+        return runFeedbackLoop(amplifiers);
+    }
 
-            if (i != 0) {
-                amplifiers[i - 1].outputQueue = amplifiers[i].inputQueue;
+    // Steps all amplifiers on the calling thread, switching to the next one whenever the current one waits for input
+    private static int runFeedbackLoop(Day09.IntcodeExecutor[] amplifiers) {
+        var last = amplifiers.length - 1;
+        var signal = 0;
+        var waiting = 0;
+        var current = 0;
+
+        while (true) {
+            var status = amplifiers[current].run();
+            if (status == Day09.Status.HAS_OUTPUT) {
+                var value = amplifiers[current].takeOutput();
+                amplifiers[(current + 1) % amplifiers.length].addInput(value);
+                if (current == last) {
+                    signal = Math.toIntExact(value);
+                }
+                waiting = 0;
+                continue;
             }
-        }
-        amplifiers[amplifiers.length - 1].outputQueue = amplifiers[0].inputQueue;
 
-        // Push settings and start
-        for (var i = 0; i < phaseSettings.length; i++) {
-            amplifiers[i].pushInput(phaseSettings[i]);
-            threads[i].start();
-        }
-        // Push start value to kickoff the execution
-        amplifiers[0].pushInput(0);
-
-        // Wait for all amplifiers to finish
-        for (var thread : threads) {
-            try {
-                thread.join();
-            } catch (InterruptedException e) {
-                throw new RuntimeException("Thread interrupted!");
+            if (status == Day09.Status.HALTED && current == last) {
+                return signal;
             }
+            if (status == Day09.Status.NEEDS_INPUT && ++waiting > amplifiers.length) {
+                throw new IllegalStateException("Amplifiers are deadlocked");
+            }
+            current = (current + 1) % amplifiers.length;
         }
-
-        // Obtain final value
-        return amplifiers[amplifiers.length - 1].getOutput();
     }
 
-    public static void permute(int[] arr, List<int[]> permutations) {
-        permuteStep(arr, 0, permutations);
-    }
+    // Signal after a phase prefix, children extend the prefix by one more amplifier
+    static class SignalTrie {
+        private final Map<Integer, SignalTrie> children = new ConcurrentHashMap<>();
+        final int signal;
 
-    private static void permuteStep(int[] array, int index, List<int[]> permutations) {
-        if (index >= array.length - 1) {
-            permutations.add(Arrays.copyOf(array, array.length));
-            return;
+        SignalTrie(int signal) {
+            this.signal = signal;
         }
 
-        for (int i = index; i < array.length; i++) {
-            int temp = array[index];
-            array[index] = array[i];
-            array[i] = temp;
+        SignalTrie next(int setting, IntBinaryOperator amplifier) {
+            return children.computeIfAbsent(setting, key -> new SignalTrie(amplifier.applyAsInt(key, signal)));
+        }
+    }
 
-            permuteStep(array, index + 1, permutations);
+    // Permutations are generated lazily, so memory stays constant regardless of their count
+    public static Stream<int[]> permutations(int[] values) {
+        var sorted = Arrays.copyOf(values, values.length);
+        Arrays.sort(sorted);
 
-            temp = array[index];
-            array[index] = array[i];
-            array[i] = temp;
+        var count = 1L;
+        for (var i = 2; i <= sorted.length; i++) {
+            count = Math.multiplyExact(count, i);
         }
+        return StreamSupport.stream(new PermutationSpliterator(sorted, 0, count), true);
     }
 
-    static class IntcodeExecutor extends Day05.IntcodeExecutor {
-        private ArrayBlockingQueue<Integer> inputQueue = new ArrayBlockingQueue<>(100);
-        private ArrayBlockingQueue<Integer> outputQueue = new ArrayBlockingQueue<>(100);
+    // Walks a range of lexicographic permutation ranks, splitting the range in half for parallel streams
+    static class PermutationSpliterator implements Spliterator<int[]> {
+        private final int[] values;
+        private final long end;
+        private long index;
+        private int[] current;
+
+        PermutationSpliterator(int[] values, long start, long end) {
+            this.values = values;
+            this.index = start;
+            this.end = end;
+        }
 
-        IntcodeExecutor(int[] numbers) {
-            super(numbers);
+        @Override
+        public boolean tryAdvance(Consumer<? super int[]> action) {
+            if (index >= end) return false;
+
+            if (current == null) {
+                current = unrank(index);
+            } else {
+                nextPermutation(current);
+            }
+            index++;
+            action.accept(Arrays.copyOf(current, current.length));
+            return true;
         }
 
-        public void pushInput(int value) {
-            inputQueue.add(value);
+        @Override
+        public Spliterator<int[]> trySplit() {
+            var middle = index + (end - index) / 2;
+            if (middle == index) return null;
+
+            var prefix = new PermutationSpliterator(values, index, middle);
+            index = middle;
+            current = null;
+            return prefix;
         }
 
-        public int getOutput() {
-            try {
-                return outputQueue.take();
-            } catch (InterruptedException e) {
-                throw new RuntimeException("Unable to take");
-            }
+        @Override
+        public long estimateSize() {
+            return end - index;
         }
 
         @Override
-        protected int acceptInt() {
-            try {
-                return inputQueue.take();
-            } catch (InterruptedException e) {
-                throw new RuntimeException("Unable to take");
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+        }
+
+        private int[] unrank(long rank) {
+            var remaining = new int[values.length];
+            System.arraycopy(values, 0, remaining, 0, values.length);
+            var remainingCount = values.length;
+
+            var factorial = 1L;
+            for (var i = 2; i < values.length; i++) {
+                factorial *= i;
             }
+
+            var result = new int[values.length];
+            for (var i = 0; i < values.length; i++) {
+                var selected = (int) (rank / factorial);
+                rank %= factorial;
+                if (remainingCount > 1) {
+                    factorial /= remainingCount - 1;
+                }
+
+                result[i] = remaining[selected];
+                System.arraycopy(remaining, selected + 1, remaining, selected, remainingCount - selected - 1);
+                remainingCount--;
+            }
+            return result;
         }
 
-        @Override
-        protected void produceInt(int value) {
-            try {
-                outputQueue.put(value);
-            } catch (InterruptedException e) {
-                throw new RuntimeException("Unable to put");
+        private static void nextPermutation(int[] array) {
+            var pivot = array.length - 2;
+            while (pivot >= 0 && array[pivot] >= array[pivot + 1]) {
+                pivot--;
+            }
+            if (pivot < 0) return;
+
+            var successor = array.length - 1;
+            while (array[successor] <= array[pivot]) {
+                successor--;
             }
+            swap(array, pivot, successor);
+
+            for (int i = pivot + 1, j = array.length - 1; i < j; i++, j--) {
+                swap(array, i, j);
+            }
+        }
+
+        private static void swap(int[] array, int a, int b) {
+            int temp = array[a];
+            array[a] = array[b];
+            array[b] = temp;
         }
     }
 }
@@ -1,20 +1,54 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
-import java.util.stream.Stream;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
 
 public class Day09 {
     public static void main(String[] args) throws IOException {
-        var input = Files.readString(Paths.get("input09.txt")).trim();
-        var numbers = Stream.of(input.split(","))
-                .mapToLong(Long::parseLong)
-                .toArray();
+        var image = ProgramImage.load(Paths.get("input09.txt"));
 
-        var executor = new IntcodeExecutor(numbers);
+        var executor = new IntcodeExecutor(image.program);
+        executor.connect(new StdioChannel());
+        executor.optimize(image.optimization);
         executor.execute();
     }
 
+    enum Status {
+        NEEDS_INPUT,
+        HAS_OUTPUT,
+        HALTED,
+        // Instruction limit given to run() was used up
+        YIELDED
+    }
+
     static class IntcodeExecutor {
         private static final int ADD = 1;
         private static final int MUL = 2;
@@ -31,33 +65,326 @@ public class Day09 {
         private static final int MODE_IMMEDIATE = 1;
         private static final int MODE_RELATIVE = 2;
 
-        private final long[] numbers;
-        private final Scanner scanner = new Scanner(System.in);
+        private static final int COMPILE_THRESHOLD = 1_000;
+        private static final int CHANNEL_BUFFER = 1_024;
+
+        private Memory memory;
+        private Instruction[] decoded;
+        private final List<Block> blocks = new ArrayList<>();
+        private Scanner scanner;
+        private final LongQueue inputs = new LongQueue();
+        private LongChannel channel;
+        private LongBuffer pendingInputs;
+        private LongBuffer pendingOutputs;
+
+        private boolean[] compiledCode;
+        boolean codeWritten;
 
-        private int relativeBase;
+        private int instructionPointer;
+        private long relativeBase;
+        private long output;
+        private long emptyInput;
+        private int emptyPollLimit;
+        private int emptyPolls;
+        private long remainingInstructions = Long.MAX_VALUE;
+        private long executedInstructions;
+        private boolean resumable;
+        private Status suspendedOn;
         private boolean failed;
         protected boolean halted;
+        private Optimization optimization;
+        private boolean deoptimizePending;
 
         IntcodeExecutor(long[] numbers) {
-            this.numbers = new long[10000];
-            System.arraycopy(numbers, 0, this.numbers, 0, numbers.length);
+            this.memory = new Memory(numbers);
+            this.decoded = new Instruction[numbers.length];
+        }
+
+        // Copies a machine that returned from execute(), the original is left untouched
+        protected IntcodeExecutor(IntcodeExecutor other) {
+            this.memory = other.memory.copy();
+            this.decoded = new Instruction[other.decoded.length];
+            this.instructionPointer = other.instructionPointer;
+            this.relativeBase = other.relativeBase;
+            this.inputs.addAll(other.inputs);
+            this.emptyInput = other.emptyInput;
+            this.emptyPollLimit = other.emptyPollLimit;
+            this.emptyPolls = other.emptyPolls;
+            this.output = other.output;
+            this.failed = other.failed;
+            this.halted = other.halted;
+            this.optimization = other.optimization;
         }
 
         public void execute() {
-            var currentIndex = 0;
+            resumable = false;
+            remainingInstructions = Long.MAX_VALUE;
+            loop();
+            if (channel != null) {
+                flushOutputs();
+            }
+        }
 
-            while (!failed && !halted) {
-                var instruction = numbers[currentIndex];
+        // Moves execute()'s input and output from the per-value acceptLong/produceLong hooks to bulk
+        // transfers over the channel, which is only called once a buffer is empty or full
+        public void connect(LongChannel channel) {
+            this.channel = channel;
+            pendingInputs = LongBuffer.allocate(CHANNEL_BUFFER).flip();
+            pendingOutputs = LongBuffer.allocate(CHANNEL_BUFFER);
+        }
+
+        // Runs until the program needs an input that wasn't added, produces an output or halts
+        public Status run() {
+            return run(Long.MAX_VALUE);
+        }
+
+        // Same as run(), but also stops once roughly the given number of instructions were executed,
+        // a compiled block always runs to its end
+        public Status run(long instructionLimit) {
+            resumable = true;
+            suspendedOn = null;
+            remainingInstructions = instructionLimit;
+            loop();
 
-                currentIndex += processInstruction((int) instruction, currentIndex);
+            if (suspendedOn != null) return suspendedOn;
+            if (halted || failed) return Status.HALTED;
+            return Status.YIELDED;
+        }
+
+        public long executedInstructions() {
+            return executedInstructions;
+        }
+
+        public void addInput(long value) {
+            inputs.add(value);
+        }
+
+        // For programs that poll a device: while nothing is queued, run() hands out emptyValue up to limit times
+        // in a row and only then reports NEEDS_INPUT, output or a real input resets the count
+        public void pollInputs(long emptyValue, int limit) {
+            emptyInput = emptyValue;
+            emptyPollLimit = limit;
+        }
+
+        // Called by run() when the input queue is empty, subclasses may add inputs from their own source
+        protected void refillInputs() {
+        }
+
+        public long takeOutput() {
+            return output;
+        }
+
+        // Switches to the optimizer's rewrite of the loaded program, must be called before it starts running
+        public boolean optimize() {
+            checkNotStarted();
+            return apply(Optimizer.optimize(memory.range(0, decoded.length)));
+        }
+
+        // Same as optimize(), but with a rewrite computed earlier for the same program, see ProgramImage
+        public boolean optimize(Optimization result) {
+            checkNotStarted();
+            if (result != null && !Arrays.equals(result.original, memory.range(0, result.original.length))) {
+                throw new IllegalArgumentException("Rewrite belongs to a different program");
             }
+            return apply(result);
         }
 
-        private int processInstruction(int instruction, int currentIndex) {
-            var opCode = instruction % 100;
-            var modes = instruction / 100;
+        private void checkNotStarted() {
+            if (instructionPointer != 0 || optimization != null) {
+                throw new IllegalStateException("Program already started or optimized");
+            }
+        }
 
-            return switch (opCode) {
+        private boolean apply(Optimization result) {
+            if (result == null) return false;
+
+            for (var i = 0; i < result.image.length; i++) {
+                if (result.image[i] != result.original[i]) {
+                    write(i, result.image[i]);
+                }
+            }
+            optimization = result;
+            return true;
+        }
+
+        private void loop() {
+            var currentIndex = instructionPointer;
+            var remaining = remainingInstructions;
+
+            while (!failed && !halted && suspendedOn == null && remaining > 0) {
+                if (optimization != null && optimization.guards(currentIndex, Optimizer.GUARD_FETCH)) {
+                    deoptimize();
+                }
+
+                var instruction = decode(currentIndex);
+                if (instruction.block == null && ++instruction.hits == COMPILE_THRESHOLD) {
+                    instruction.block = compile(currentIndex);
+                }
+
+                var block = instruction.block;
+                var partner = instruction.partner;
+                if (partner != null && decoded[currentIndex + 4] != partner) {
+                    // The jump was rewritten since the pair was fused, pair up with whatever is there now
+                    partner = instruction.partner = fusedPartner(currentIndex);
+                }
+
+                if (block != null) {
+                    codeWritten = false;
+                    currentIndex = block.code.run(this);
+                    remaining -= block.instructions;
+                } else if (partner != null) {
+                    currentIndex = processFused(instruction, partner, currentIndex);
+                    remaining -= 2;
+                } else {
+                    currentIndex += processInstruction(instruction, currentIndex);
+                    remaining--;
+                }
+
+                if (deoptimizePending) {
+                    deoptimize();
+                }
+            }
+            instructionPointer = currentIndex;
+            executedInstructions += remainingInstructions - remaining;
+            remainingInstructions = remaining;
+        }
+
+        public IntcodeExecutor fork() {
+            return new IntcodeExecutor(this);
+        }
+
+        // Captures memory, registers and the queued inputs and last output of run(), a channel given to
+        // connect() is outside the machine and not part of it
+        public Snapshot snapshot() {
+            return new Snapshot(this);
+        }
+
+        public void restore(Snapshot snapshot) {
+            memory = snapshot.memory.copy();
+            instructionPointer = snapshot.instructionPointer;
+            relativeBase = snapshot.relativeBase;
+            optimization = snapshot.optimization;
+            deoptimizePending = false;
+            inputs.clear();
+            for (var value : snapshot.inputs) {
+                inputs.add(value);
+            }
+            output = snapshot.output;
+            emptyPolls = snapshot.emptyPolls;
+            suspendedOn = snapshot.suspendedOn;
+            failed = snapshot.failed;
+            halted = snapshot.halted;
+
+            // Compiled code and decoded instructions belong to the replaced memory
+            decoded = new Instruction[decoded.length];
+            blocks.clear();
+            compiledCode = null;
+        }
+
+        // Puts the machine back at the start of the given program without allocating, decoded instructions
+        // and compiled blocks are kept wherever the code still matches
+        public void reset(long[] numbers) {
+            memory.reset(numbers);
+            optimization = null;
+            deoptimizePending = false;
+            instructionPointer = 0;
+            relativeBase = 0;
+            inputs.clear();
+            if (channel != null) {
+                pendingInputs.clear().flip();
+                pendingOutputs.clear();
+            }
+            output = 0;
+            emptyPolls = 0;
+            suspendedOn = null;
+            failed = false;
+            halted = false;
+
+            for (var i = 0; i < decoded.length; i++) {
+                var instruction = decoded[i];
+                if (instruction != null && instruction.value != (int) memory.read(i)) {
+                    decoded[i] = null;
+                }
+            }
+            if (!blocks.isEmpty()) {
+                dropBlocks(block -> !block.matches(memory));
+            }
+        }
+
+        private Block compile(int start) {
+            var block = BlockCompiler.compile(this, start);
+            if (block == null) return null;
+
+            if (compiledCode == null) {
+                compiledCode = new boolean[decoded.length];
+            }
+            if (block.end > compiledCode.length) {
+                compiledCode = Arrays.copyOf(compiledCode, Math.max(block.end, compiledCode.length * 2));
+            }
+            blocks.add(block);
+            Arrays.fill(compiledCode, block.start, block.end, true);
+            return block;
+        }
+
+        private Instruction decode(int currentIndex) {
+            if (currentIndex >= decoded.length) {
+                decoded = Arrays.copyOf(decoded, Math.max(currentIndex + 1, decoded.length * 2));
+            }
+
+            var instruction = decoded[currentIndex];
+            if (instruction == null) {
+                instruction = new Instruction((int) memory.read(currentIndex));
+                decoded[currentIndex] = instruction;
+
+                var opCode = instruction.opCode;
+                if (opCode == ADD || opCode == LESS_THAN || opCode == EQUALS) {
+                    instruction.partner = fusedPartner(currentIndex);
+                }
+            }
+            return instruction;
+        }
+
+        // Loop counters and comparisons are usually followed by a conditional jump, such pairs run as one dispatch
+        private Instruction fusedPartner(int currentIndex) {
+            if (optimization != null && optimization.guards(currentIndex + 4, Optimizer.GUARD_FETCH)) return null;
+
+            // Peek first so runs of arithmetic don't decode each other recursively
+            var opCode = (int) memory.read(currentIndex + 4) % 100;
+            if (opCode != JUMP_TRUE && opCode != JUMP_FALSE) return null;
+            return decode(currentIndex + 4);
+        }
+
+        private int processFused(Instruction instruction, Instruction partner, int currentIndex) {
+            var modes = instruction.modes;
+            var inputA = getInput(modes[0], currentIndex + 1);
+            var inputB = getInput(modes[1], currentIndex + 2);
+            var output = getOutput(modes[2], currentIndex + 3);
+            var value = switch (instruction.opCode) {
+                case ADD -> inputA + inputB;
+                case LESS_THAN -> inputA < inputB ? 1L : 0L;
+                default -> inputA == inputB ? 1L : 0L;
+            };
+            write(output, value);
+
+            var next = currentIndex + 4;
+            if (decoded[next] != partner) {
+                // The write replaced the jump, run whatever it is now
+                return next + processInstruction(decode(next), next);
+            }
+
+            var jumpModes = partner.modes;
+            // Branching on the cell that was just written skips reading it back
+            var condition = jumpModes[0] == MODE_POSITION && memory.read(next + 1) == output
+                    ? value
+                    : getInput(jumpModes[0], next + 1);
+            var taken = partner.opCode == JUMP_TRUE ? condition != 0 : condition == 0;
+            return taken ? (int) getInput(jumpModes[1], next + 2) : next + 3;
+        }
+
+        private int processInstruction(Instruction instruction, int currentIndex) {
+            var modes = instruction.modes;
+
+            return switch (instruction.opCode) {
                 case ADD -> add(modes, currentIndex);
                 case MUL -> multiply(modes, currentIndex);
                 case INPUT -> input(modes, currentIndex);
@@ -72,103 +399,196 @@ public class Day09 {
             };
         }
 
-        private int add(int modes, int currentIndex) {
-            var inputA = getInput(modes, 0, currentIndex + 1);
-            var inputB = getInput(modes, 1, currentIndex + 2);
-            var output = getOutput(modes, 2, currentIndex + 3);
+        private int add(int[] modes, int currentIndex) {
+            var inputA = getInput(modes[0], currentIndex + 1);
+            var inputB = getInput(modes[1], currentIndex + 2);
+            var output = getOutput(modes[2], currentIndex + 3);
 
-            numbers[output] = inputA + inputB;
+            write(output, inputA + inputB);
             return 4;
         }
 
-        private int multiply(int modes, int currentIndex) {
-            var inputA = getInput(modes, 0, currentIndex + 1);
-            var inputB = getInput(modes, 1, currentIndex + 2);
-            var output = getOutput(modes, 2, currentIndex + 3);
+        private int multiply(int[] modes, int currentIndex) {
+            var inputA = getInput(modes[0], currentIndex + 1);
+            var inputB = getInput(modes[1], currentIndex + 2);
+            var output = getOutput(modes[2], currentIndex + 3);
 
-            numbers[output] = inputA * inputB;
+            write(output, inputA * inputB);
             return 4;
         }
 
-        private int input(int modes, int currentIndex) {
-            numbers[getOutput(modes, 0, currentIndex + 1)] = acceptLong();
+        private int input(int[] modes, int currentIndex) {
+            if (!resumable) {
+                write(getOutput(modes[0], currentIndex + 1), channel != null ? receive() : acceptLong());
+                return 2;
+            }
+
+            if (inputs.isEmpty()) {
+                refillInputs();
+            }
+            if (!inputs.isEmpty()) {
+                emptyPolls = 0;
+                write(getOutput(modes[0], currentIndex + 1), inputs.poll());
+            } else if (emptyPolls < emptyPollLimit) {
+                emptyPolls++;
+                write(getOutput(modes[0], currentIndex + 1), emptyInput);
+            } else {
+                // Stay on this instruction so it is retried once input is added
+                suspendedOn = Status.NEEDS_INPUT;
+                return 0;
+            }
             return 2;
         }
 
-        private int output(int modes, int currentIndex) {
-            produceLong(getInput(modes, 0, currentIndex + 1));
+        private int output(int[] modes, int currentIndex) {
+            var value = getInput(modes[0], currentIndex + 1);
+            emptyPolls = 0;
+            if (resumable) {
+                output = value;
+                suspendedOn = Status.HAS_OUTPUT;
+            } else if (channel != null) {
+                send(value);
+            } else {
+                produceLong(value);
+            }
             return 2;
         }
 
-        private int jumpIfTrue(int modes, int currentIndex) {
-            var input = getInput(modes, 0, currentIndex + 1);
+        private int jumpIfTrue(int[] modes, int currentIndex) {
+            var input = getInput(modes[0], currentIndex + 1);
             if (input == 0) {
                 return 3;
             }
 
-            return (int) (-currentIndex + getInput(modes, 1, currentIndex + 2));
+            return (int) (-currentIndex + getInput(modes[1], currentIndex + 2));
         }
 
-        private int jumpIfFalse(int modes, int currentIndex) {
-            var input = getInput(modes, 0, currentIndex + 1);
+        private int jumpIfFalse(int[] modes, int currentIndex) {
+            var input = getInput(modes[0], currentIndex + 1);
             if (input != 0) {
                 return 3;
             }
 
-            return (int) (-currentIndex + getInput(modes, 1, currentIndex + 2));
+            return (int) (-currentIndex + getInput(modes[1], currentIndex + 2));
         }
 
-        private int lessThan(int modes, int currentIndex) {
-            var inputA = getInput(modes, 0, currentIndex + 1);
-            var inputB = getInput(modes, 1, currentIndex + 2);
-            var output = getOutput(modes, 2, currentIndex + 3);
+        private int lessThan(int[] modes, int currentIndex) {
+            var inputA = getInput(modes[0], currentIndex + 1);
+            var inputB = getInput(modes[1], currentIndex + 2);
+            var output = getOutput(modes[2], currentIndex + 3);
 
-            numbers[output] = inputA < inputB ? 1 : 0;
+            write(output, inputA < inputB ? 1 : 0);
             return 4;
         }
 
-        private int equals(int modes, int currentIndex) {
-            var inputA = getInput(modes, 0, currentIndex + 1);
-            var inputB = getInput(modes, 1, currentIndex + 2);
-            var output = getOutput(modes, 2, currentIndex + 3);
+        private int equals(int[] modes, int currentIndex) {
+            var inputA = getInput(modes[0], currentIndex + 1);
+            var inputB = getInput(modes[1], currentIndex + 2);
+            var output = getOutput(modes[2], currentIndex + 3);
 
-            numbers[output] = inputA == inputB ? 1 : 0;
+            write(output, inputA == inputB ? 1 : 0);
             return 4;
         }
 
-        private int adjustRelativeBase(int modes, int currentIndex) {
-            relativeBase += getInput(modes, 0, currentIndex + 1);
+        private int adjustRelativeBase(int[] modes, int currentIndex) {
+            relativeBase += getInput(modes[0], currentIndex + 1);
             return 2;
         }
 
-        private long getInput(int modes, int modeIndex, int numbersIndex) {
-            for (int i = 0; i < modeIndex; i++) {
-                modes /= 10;
-            }
-            var mode = modes % 10;
-
+        private long getInput(int mode, int numbersIndex) {
             return switch (mode) {
-                case MODE_POSITION -> numbers[(int) numbers[numbersIndex]];
-                case MODE_IMMEDIATE -> numbers[numbersIndex];
-                case MODE_RELATIVE -> numbers[(int) (relativeBase + numbers[numbersIndex])];
+                case MODE_POSITION -> read(memory.read(numbersIndex));
+                case MODE_IMMEDIATE -> memory.read(numbersIndex);
+                case MODE_RELATIVE -> read(relativeBase + memory.read(numbersIndex));
                 default -> throw new IllegalStateException("Invalid mode");
             };
         }
 
-        private int getOutput(int modes, int modeIndex, int numbersIndex) {
-            for (int i = 0; i < modeIndex; i++) {
-                modes /= 10;
-            }
-            var mode = modes % 10;
-
+        private long getOutput(int mode, int numbersIndex) {
             return switch (mode) {
-                case MODE_POSITION -> (int) numbers[numbersIndex];
+                case MODE_POSITION -> memory.read(numbersIndex);
                 case MODE_IMMEDIATE -> numbersIndex;
-                case MODE_RELATIVE -> (int) (relativeBase + numbers[numbersIndex]);
+                case MODE_RELATIVE -> relativeBase + memory.read(numbersIndex);
                 default -> throw new IllegalStateException("Invalid mode");
             };
         }
 
+        long read(long address) {
+            if (optimization != null && optimization.guards(address, Optimizer.GUARD_READ)) {
+                // Rewritten code read as data, finish the current instruction on the original value
+                deoptimizePending = true;
+                return optimization.original[(int) address];
+            }
+            return memory.read(address);
+        }
+
+        void write(long address, long value) {
+            if (optimization != null && optimization.guards(address, Optimizer.GUARD_WRITE)) {
+                deoptimize();
+            }
+            memory.write(address, value);
+            if (address >= decoded.length) return;
+
+            var index = (int) address;
+            // Only the opcode cell is cached, operands are always read from memory
+            decoded[index] = null;
+            if (compiledCode != null && index < compiledCode.length && compiledCode[index]) {
+                invalidateBlocks(index);
+            }
+        }
+
+        long relativeAddress(long offset) {
+            return relativeBase + offset;
+        }
+
+        void moveRelativeBase(long offset) {
+            relativeBase += offset;
+        }
+
+        int branchIfTrue(long condition, long target, int next) {
+            return condition != 0 ? (int) target : next;
+        }
+
+        int branchIfFalse(long condition, long target, int next) {
+            return condition == 0 ? (int) target : next;
+        }
+
+        private void invalidateBlocks(int address) {
+            codeWritten = true;
+            // Self-modified regions stay interpreted, their hit counters are already past the threshold
+            dropBlocks(block -> address >= block.start && address < block.end);
+        }
+
+        // Puts the original program back once it touches something the optimizer relied on, instructions
+        // already fetched from the rewritten code compute the same values
+        private void deoptimize() {
+            var applied = optimization;
+            optimization = null;
+            deoptimizePending = false;
+
+            for (var i = 0; i < applied.image.length; i++) {
+                if (applied.image[i] != applied.original[i]) {
+                    write(i, applied.original[i]);
+                }
+            }
+            // A running compiled block was translated from the rewritten code
+            codeWritten = true;
+        }
+
+        private void dropBlocks(Predicate<Block> stale) {
+            blocks.removeIf(block -> {
+                if (!stale.test(block)) return false;
+
+                var instruction = decoded[block.start];
+                if (instruction != null && instruction.block == block) {
+                    instruction.block = null;
+                }
+                return true;
+            });
+            Arrays.fill(compiledCode, false);
+            blocks.forEach(block -> Arrays.fill(compiledCode, block.start, block.end, true));
+        }
+
         private int halt() {
             halted = true;
             return 1;
@@ -179,7 +599,39 @@ public class Day09 {
             return 0;
         }
 
+        private long receive() {
+            if (!pendingInputs.hasRemaining()) {
+                // The program may be waiting for a reply to what it printed so far
+                flushOutputs();
+                pendingInputs.clear();
+                channel.fill(pendingInputs);
+                pendingInputs.flip();
+                if (!pendingInputs.hasRemaining()) {
+                    throw new IllegalStateException("Input channel is exhausted");
+                }
+            }
+            return pendingInputs.get();
+        }
+
+        private void send(long value) {
+            pendingOutputs.put(value);
+            if (!pendingOutputs.hasRemaining()) {
+                flushOutputs();
+            }
+        }
+
+        private void flushOutputs() {
+            if (pendingOutputs.position() == 0) return;
+
+            pendingOutputs.flip();
+            channel.drain(pendingOutputs);
+            pendingOutputs.clear();
+        }
+
         protected long acceptLong() {
+            if (scanner == null) {
+                scanner = new Scanner(System.in);
+            }
             return scanner.nextLong();
         }
 
@@ -187,4 +639,1335 @@ public class Day09 {
             System.out.println(value);
         }
     }
+
+    // Bulk input and output for execute(), see IntcodeExecutor.connect()
+    interface LongChannel {
+        // Puts at least one value into the buffer unless the input is exhausted, more if they are already at hand
+        void fill(LongBuffer buffer);
+
+        // Takes every value between the buffer's position and limit
+        void drain(LongBuffer buffer);
+    }
+
+    // Comma or whitespace separated numbers from stdin and one number per line to stdout, converted
+    // straight between bytes and longs
+    static class StdioChannel implements LongChannel {
+        private final byte[] input = new byte[8_192];
+        private final byte[] output = new byte[8_192];
+        private int inputStart;
+        private int inputEnd;
+        private boolean endOfInput;
+
+        @Override
+        public void fill(LongBuffer buffer) {
+            while (buffer.position() == 0) {
+                parseNumbers(buffer);
+                if (buffer.position() > 0 || endOfInput) return;
+
+                // Keep a number cut off at the end of the last read
+                System.arraycopy(input, inputStart, input, 0, inputEnd - inputStart);
+                inputEnd -= inputStart;
+                inputStart = 0;
+                if (inputEnd == input.length) {
+                    throw new IllegalStateException("Input number is too long");
+                }
+
+                try {
+                    var read = System.in.read(input, inputEnd, input.length - inputEnd);
+                    if (read < 0) {
+                        endOfInput = true;
+                    } else {
+                        inputEnd += read;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        private void parseNumbers(LongBuffer buffer) {
+            while (buffer.hasRemaining()) {
+                while (inputStart < inputEnd && isSeparator(input[inputStart])) {
+                    inputStart++;
+                }
+
+                var end = inputStart;
+                while (end < inputEnd && !isSeparator(input[end])) {
+                    end++;
+                }
+                // Without a separator after it the number may continue in the next read
+                if (end == inputStart || end == inputEnd && !endOfInput) return;
+
+                var negative = input[inputStart] == '-';
+                var value = 0L;
+                for (var i = negative ? inputStart + 1 : inputStart; i < end; i++) {
+                    var digit = input[i] - '0';
+                    if (digit < 0 || digit > 9) {
+                        throw new NumberFormatException("Invalid input: " + new String(input, inputStart, end - inputStart));
+                    }
+                    value = value * 10 - digit;
+                }
+                buffer.put(negative ? value : -value);
+                inputStart = end;
+            }
+        }
+
+        private static boolean isSeparator(byte value) {
+            return value == ',' || value == ' ' || value == '\n' || value == '\r' || value == '\t';
+        }
+
+        @Override
+        public void drain(LongBuffer buffer) {
+            var length = 0;
+            while (buffer.hasRemaining()) {
+                // Longest line is a sign, 19 digits and the newline
+                if (length > output.length - 21) {
+                    System.out.write(output, 0, length);
+                    length = 0;
+                }
+                length = format(buffer.get(), length);
+            }
+            System.out.write(output, 0, length);
+            System.out.flush();
+        }
+
+        // Digits are produced from the negated value, so Long.MIN_VALUE needs no special case
+        private int format(long value, int offset) {
+            if (value < 0) {
+                output[offset++] = '-';
+            } else {
+                value = -value;
+            }
+
+            var digits = 1;
+            for (var rest = value / 10; rest != 0; rest /= 10) {
+                digits++;
+            }
+            for (var i = offset + digits - 1; i >= offset; i--) {
+                output[i] = (byte) ('0' - value % 10);
+                value /= 10;
+            }
+            output[offset + digits] = '\n';
+            return offset + digits + 1;
+        }
+    }
+
+    // Parses comma separated programs straight from the file's bytes, no String is created per number
+    static class ProgramLoader {
+        private ProgramLoader() {
+        }
+
+        // Served from the binary image cache when the file was parsed before, callers get their own copy
+        static long[] load(Path path) throws IOException {
+            return ProgramImage.load(path).program.clone();
+        }
+
+        static int[] loadInts(Path path) throws IOException {
+            var numbers = load(path);
+            var values = new int[numbers.length];
+            for (var i = 0; i < numbers.length; i++) {
+                values[i] = Math.toIntExact(numbers[i]);
+            }
+            return values;
+        }
+
+        // Reads from the buffer's position to its limit, surrounding whitespace is ignored
+        static long[] parse(ByteBuffer bytes) {
+            // Most numbers in a program are a few digits long, the array grows if that is too little
+            var numbers = new long[Math.max(16, bytes.remaining() / 4)];
+            var count = 0;
+
+            skipWhitespace(bytes);
+            while (bytes.hasRemaining()) {
+                if (count == numbers.length) {
+                    numbers = Arrays.copyOf(numbers, count * 2);
+                }
+                numbers[count++] = parseNumber(bytes);
+
+                skipWhitespace(bytes);
+                if (!bytes.hasRemaining()) break;
+                if (bytes.get() != ',') {
+                    throw new NumberFormatException("Expected ',' at byte " + (bytes.position() - 1));
+                }
+                skipWhitespace(bytes);
+            }
+            return Arrays.copyOf(numbers, count);
+        }
+
+        // Accumulates negatively so Long.MIN_VALUE parses without overflowing
+        private static long parseNumber(ByteBuffer bytes) {
+            var negative = bytes.get(bytes.position()) == '-';
+            if (negative) {
+                bytes.get();
+            }
+
+            var start = bytes.position();
+            var value = 0L;
+            while (bytes.hasRemaining()) {
+                var digit = bytes.get(bytes.position()) - '0';
+                if (digit < 0 || digit > 9) break;
+                if (value < (Long.MIN_VALUE + digit) / 10) {
+                    throw new NumberFormatException("Number out of range at byte " + start);
+                }
+                value = value * 10 - digit;
+                bytes.get();
+            }
+
+            if (bytes.position() == start) {
+                throw new NumberFormatException("Expected a number at byte " + start);
+            }
+            if (negative) return value;
+            if (value == Long.MIN_VALUE) {
+                throw new NumberFormatException("Number out of range at byte " + start);
+            }
+            return -value;
+        }
+
+        private static void skipWhitespace(ByteBuffer bytes) {
+            while (bytes.hasRemaining() && Character.isWhitespace(bytes.get(bytes.position()))) {
+                bytes.get();
+            }
+        }
+    }
+
+    // Parsed program and optimizer result of a source file, cached as a binary image so later starts skip
+    // parsing and analysis. Images are named after a SHA-256 of the source text, which is also compared on load,
+    // and live in a cache directory only the current user can write to
+    static class ProgramImage {
+        private static final int MAGIC = 0x49434D49;
+        // Bump when the layout changes, Optimizer.VERSION covers changes to the stored rewrite
+        private static final int VERSION = 3;
+        private static final int DIGEST_SIZE = 32;
+        // Magic, format and optimizer version, source length and digest, then the CRC of everything after the header
+        private static final int HEADER_SIZE = 3 * Integer.BYTES + Long.BYTES + DIGEST_SIZE + Integer.BYTES;
+        private static final Set<PosixFilePermission> PRIVATE = PosixFilePermissions.fromString("rwx------");
+
+        final long[] program;
+        // Null when the optimizer found nothing to rewrite
+        final Optimization optimization;
+
+        private ProgramImage(long[] program, Optimization optimization) {
+            this.program = program;
+            this.optimization = optimization;
+        }
+
+        static ProgramImage load(Path path) throws IOException {
+            try (var file = FileChannel.open(path, StandardOpenOption.READ)) {
+                var source = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+                var digest = sha256(source);
+                source.rewind();
+
+                var length = file.size();
+                var cache = cacheDirectory();
+                var imagePath = cache.resolve(String.format("%s-%d-%d.img",
+                        HexFormat.of().formatHex(digest), VERSION, Optimizer.VERSION));
+
+                var cached = isPrivate(cache) ? read(imagePath, length, digest) : null;
+                if (cached != null) return cached;
+
+                var program = ProgramLoader.parse(source);
+                var image = new ProgramImage(program, Optimizer.optimize(program));
+                write(image, cache, imagePath, length, digest);
+                return image;
+            }
+        }
+
+        private static byte[] sha256(ByteBuffer bytes) {
+            try {
+                var digest = MessageDigest.getInstance("SHA-256");
+                digest.update(bytes);
+                return digest.digest();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is required by every Java platform", e);
+            }
+        }
+
+        private static Path cacheDirectory() {
+            var base = System.getenv("XDG_CACHE_HOME");
+            var root = base != null && !base.isEmpty()
+                    ? Paths.get(base)
+                    : Paths.get(System.getProperty("user.home"), ".cache");
+            return root.resolve("intcode-images");
+        }
+
+        // Images are trusted as code, so a directory someone else owns or can write to is never used
+        private static boolean isPrivate(Path directory) {
+            try {
+                if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) return false;
+                if (!Files.getOwner(directory).getName().equals(System.getProperty("user.name"))) return false;
+
+                var permissions = Files.getPosixFilePermissions(directory);
+                return !permissions.contains(PosixFilePermission.GROUP_WRITE)
+                        && !permissions.contains(PosixFilePermission.OTHERS_WRITE);
+            } catch (IOException | UnsupportedOperationException e) {
+                return false;
+            }
+        }
+
+        // Anything unexpected in the image means it is rebuilt from the source
+        private static ProgramImage read(Path imagePath, long length, byte[] digest) {
+            try (var file = FileChannel.open(imagePath, StandardOpenOption.READ)) {
+                var bytes = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+                if (bytes.getInt() != MAGIC || bytes.getInt() != VERSION || bytes.getInt() != Optimizer.VERSION) return null;
+                if (bytes.getLong() != length) return null;
+
+                var storedDigest = new byte[DIGEST_SIZE];
+                bytes.get(storedDigest);
+                if (!MessageDigest.isEqual(storedDigest, digest)) return null;
+
+                var bodyCrc = bytes.getInt();
+                var checksum = new CRC32C();
+                checksum.update(bytes.slice());
+                if ((int) checksum.getValue() != bodyCrc) return null;
+
+                var program = new long[bytes.getInt()];
+                bytes.asLongBuffer().get(program);
+                bytes.position(bytes.position() + program.length * Long.BYTES);
+                if (bytes.get() == 0) return new ProgramImage(program, null);
+
+                var image = program.clone();
+                for (var changes = bytes.getInt(); changes > 0; changes--) {
+                    image[bytes.getInt()] = bytes.getLong();
+                }
+                var guards = new byte[program.length];
+                bytes.get(guards);
+                return new ProgramImage(program, new Optimization(program, image, guards));
+            } catch (IOException | RuntimeException e) {
+                return null;
+            }
+        }
+
+        // Written to a temporary file and moved into place, so concurrent starts never see a partial image
+        private static void write(ProgramImage image, Path cache, Path imagePath, long length, byte[] digest) {
+            var program = image.program;
+            var optimization = image.optimization;
+            var changes = 0;
+            if (optimization != null) {
+                for (var i = 0; i < program.length; i++) {
+                    if (optimization.image[i] != program[i]) changes++;
+                }
+            }
+
+            var size = HEADER_SIZE + 5 + program.length * Long.BYTES;
+            if (optimization != null) {
+                size += Integer.BYTES + changes * (Integer.BYTES + Long.BYTES) + program.length;
+            }
+            var bytes = ByteBuffer.allocate(size);
+            bytes.putInt(MAGIC).putInt(VERSION).putInt(Optimizer.VERSION).putLong(length).put(digest)
+                    .putInt(0).putInt(program.length);
+            bytes.asLongBuffer().put(program);
+            bytes.position(bytes.position() + program.length * Long.BYTES);
+            bytes.put((byte) (optimization != null ? 1 : 0));
+            if (optimization != null) {
+                bytes.putInt(changes);
+                for (var i = 0; i < program.length; i++) {
+                    if (optimization.image[i] != program[i]) {
+                        bytes.putInt(i).putLong(optimization.image[i]);
+                    }
+                }
+                bytes.put(optimization.guards);
+            }
+            var checksum = new CRC32C();
+            checksum.update(bytes.flip().position(HEADER_SIZE));
+            bytes.putInt(HEADER_SIZE - Integer.BYTES, (int) checksum.getValue());
+
+            try {
+                if (!Files.exists(cache, LinkOption.NOFOLLOW_LINKS)) {
+                    Files.createDirectories(cache.getParent());
+                    Files.createDirectory(cache, PosixFilePermissions.asFileAttribute(PRIVATE));
+                }
+                if (!isPrivate(cache)) return;
+
+                var temporary = Files.createTempFile(cache, "image", ".tmp");
+                try {
+                    Files.write(temporary, bytes.array());
+                    Files.move(temporary, imagePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(temporary);
+                }
+            } catch (IOException | UnsupportedOperationException e) {
+                // Without a usable cache every start parses the source, which is still correct
+            }
+        }
+    }
+
+    // Runs one program against many input vectors across all cores, each worker thread keeps a single VM
+    // and an output buffer that are reused for every run
+    static class Batch {
+        private final long[] program;
+        private final ThreadLocal<Worker> workers;
+
+        Batch(long[] program) {
+            this.program = program;
+            this.workers = ThreadLocal.withInitial(() -> new Worker(program));
+        }
+
+        // Outputs of every run in input order, a run ends when the program halts or needs more input
+        long[][] run(long[][] inputs) {
+            var outputs = new long[inputs.length][];
+            IntStream.range(0, inputs.length)
+                    .parallel()
+                    .forEach(i -> outputs[i] = run(inputs[i]));
+            return outputs;
+        }
+
+        long[] run(long... input) {
+            return workers.get().run(program, input);
+        }
+
+        private static class Worker {
+            private final IntcodeExecutor executor;
+            private long[] outputs = new long[16];
+
+            Worker(long[] program) {
+                executor = new IntcodeExecutor(program);
+            }
+
+            long[] run(long[] program, long[] input) {
+                executor.reset(program);
+                for (var value : input) {
+                    executor.addInput(value);
+                }
+
+                var count = 0;
+                while (executor.run() == Status.HAS_OUTPUT) {
+                    if (count == outputs.length) {
+                        outputs = Arrays.copyOf(outputs, count * 2);
+                    }
+                    outputs[count++] = executor.takeOutput();
+                }
+                return Arrays.copyOf(outputs, count);
+            }
+        }
+    }
+
+    // Rewrites a program before it runs: position reads of cells no instruction writes become immediates,
+    // arithmetic on immediates is folded and stores overwritten before any read are jumped over.
+    // Every cell the rewrite relies on is guarded, see IntcodeExecutor.deoptimize()
+    static class Optimizer {
+        // Part of every ProgramImage key, bump whenever a change to the analysis or rewrite changes its output
+        static final int VERSION = 2;
+
+        static final byte GUARD_WRITE = 1;
+        static final byte GUARD_READ = 2;
+        static final byte GUARD_FETCH = 4;
+
+        private static final int[] MODE_DIVISORS = {0, 100, 1_000, 10_000};
+
+        private final long[] program;
+        private final boolean[] starts;
+        private final boolean[] written;
+
+        private Optimizer(long[] program) {
+            this.program = program;
+            this.starts = new boolean[program.length];
+            this.written = new boolean[program.length];
+        }
+
+        // Null when no consistent code could be found or nothing could be improved
+        static Optimization optimize(long[] program) {
+            if (program.length == 0) return null;
+
+            var optimizer = new Optimizer(program);
+            return optimizer.analyze() ? optimizer.rewrite() : null;
+        }
+
+        // Calls and fallthroughs after unconditional jumps also reach data. Instructions that overlap or have
+        // their opcode overwritten leave no sound view of the code, as whatever runs past them goes unanalysed
+        private boolean analyze() {
+            // Finding more code can reveal more writes and more writes can turn jump targets unknown,
+            // both only grow so this settles
+            var changed = true;
+            while (changed) {
+                changed = discover() | markWrites();
+            }
+            return !hasConflict();
+        }
+
+        private boolean hasConflict() {
+            var owned = new boolean[program.length];
+            for (var i = 0; i < program.length; i++) {
+                if (!starts[i]) continue;
+                if (written[i]) return true;
+
+                for (var cell = i; cell < Math.min(program.length, i + length(i)); cell++) {
+                    if (owned[cell] || (cell > i && starts[cell])) return true;
+                    owned[cell] = true;
+                }
+            }
+            return false;
+        }
+
+        private boolean discover() {
+            var found = false;
+            var visited = new boolean[program.length];
+            var pending = new ArrayDeque<Integer>();
+            pending.add(0);
+
+            while (!pending.isEmpty()) {
+                int index = pending.poll();
+                if (index < 0 || index >= program.length || visited[index]) continue;
+
+                visited[index] = true;
+                found |= !starts[index];
+                starts[index] = true;
+
+                var opCode = opCode(index);
+                var fallsThrough = opCode != IntcodeExecutor.HALT && length(index) > 0;
+                if (fallsThrough && (opCode == IntcodeExecutor.JUMP_TRUE || opCode == IntcodeExecutor.JUMP_FALSE)) {
+                    var target = jumpTarget(index);
+                    if (target < 0) {
+                        // A return never falls through, while a call with a known target comes back right after it
+                        fallsThrough = !alwaysJumps(index);
+                    } else {
+                        pending.add((int) target);
+                    }
+                }
+                if (fallsThrough) {
+                    pending.add(index + length(index));
+                }
+            }
+            return found;
+        }
+
+        private boolean markWrites() {
+            var changed = false;
+            for (var i = 0; i < program.length; i++) {
+                if (!starts[i] || length(i) == 0) continue;
+
+                var opCode = opCode(i);
+                var target = switch (opCode) {
+                    case IntcodeExecutor.ADD, IntcodeExecutor.MUL, IntcodeExecutor.LESS_THAN, IntcodeExecutor.EQUALS -> 3;
+                    case IntcodeExecutor.INPUT -> 1;
+                    default -> 0;
+                };
+                // A target operand that is itself overwritten is only known at runtime
+                if (target == 0 || written[i + target]) continue;
+
+                var address = switch (mode(program[i], target)) {
+                    case IntcodeExecutor.MODE_POSITION -> program[i + target];
+                    case IntcodeExecutor.MODE_IMMEDIATE -> i + target;
+                    default -> -1L;
+                };
+                if (address >= 0 && address < program.length && !written[(int) address]) {
+                    written[(int) address] = true;
+                    changed = true;
+                }
+            }
+            return changed;
+        }
+
+        private Optimization rewrite() {
+            var image = Arrays.copyOf(program, program.length);
+            // Cells whose value the rewrite depends on, whether or not it changed them
+            var relied = new boolean[program.length];
+
+            for (var i = 0; i < program.length; i++) {
+                if (!starts[i] || length(i) == 0 || isVolatile(i)) continue;
+
+                var opCode = opCode(i);
+                var instruction = program[i];
+                for (var operand = 1; operand <= inputs(opCode); operand++) {
+                    var address = program[i + operand];
+                    if (mode(instruction, operand) != IntcodeExecutor.MODE_POSITION) continue;
+                    if (address < 0 || address >= program.length || written[(int) address]) continue;
+
+                    image[i + operand] = program[(int) address];
+                    instruction += MODE_DIVISORS[operand];
+                    relied[(int) address] = true;
+                }
+
+                if (inputs(opCode) == 2 && length(i) == 4
+                        && mode(instruction, 1) == IntcodeExecutor.MODE_IMMEDIATE
+                        && mode(instruction, 2) == IntcodeExecutor.MODE_IMMEDIATE) {
+                    var a = image[i + 1];
+                    var b = image[i + 2];
+                    image[i + 1] = switch (opCode) {
+                        case IntcodeExecutor.ADD -> a + b;
+                        case IntcodeExecutor.MUL -> a * b;
+                        case IntcodeExecutor.LESS_THAN -> a < b ? 1 : 0;
+                        default -> a == b ? 1 : 0;
+                    };
+                    image[i + 2] = 0;
+                    instruction = instruction - opCode + IntcodeExecutor.ADD;
+                }
+                image[i] = instruction;
+            }
+
+            skipDeadStores(image, relied);
+            if (Arrays.equals(image, program)) return null;
+
+            // A rewritten instruction was decoded from all of its cells, an operand folded to the value it
+            // already held still has to stay put
+            for (var i = 0; i < program.length; i++) {
+                if (!starts[i] || length(i) == 0) continue;
+                if (Arrays.mismatch(image, i, i + length(i), program, i, i + length(i)) >= 0) {
+                    Arrays.fill(relied, i, i + length(i), true);
+                }
+            }
+
+            var guards = new byte[program.length];
+            for (var i = 0; i < program.length; i++) {
+                if ((starts[i] && length(i) > 0) || relied[i]) {
+                    guards[i] |= GUARD_WRITE;
+                }
+                if (image[i] != program[i]) {
+                    guards[i] |= GUARD_WRITE | GUARD_READ;
+                }
+            }
+            // Jumping into the middle of an instruction would decode rewritten operands as code
+            for (var i = 0; i < program.length; i++) {
+                if (starts[i] && length(i) > 0) continue;
+                for (var cell = i; cell < Math.min(program.length, i + 4); cell++) {
+                    if (image[cell] != program[cell]) {
+                        guards[i] |= GUARD_FETCH;
+                    }
+                }
+            }
+            return new Optimization(program, image, guards);
+        }
+
+        // A store is dead when straight-line code stores to the same cell again before anything could read it,
+        // runs of dead stores become one jump over them. Every cell from the dead store up to the one overwriting
+        // it is relied on, a retargeted store or operand in between would make the skipped value visible
+        private void skipDeadStores(long[] image, boolean[] relied) {
+            var dead = new boolean[program.length];
+            for (var i = 0; i < program.length; i++) {
+                var end = deadStoreEnd(image, i);
+                if (end >= 0) {
+                    dead[i] = true;
+                    Arrays.fill(relied, i, end, true);
+                }
+            }
+
+            for (var i = 0; i < program.length; i++) {
+                if (!dead[i]) continue;
+
+                var next = i + 4;
+                while (next < program.length && dead[next]) {
+                    next += 4;
+                }
+                image[i] = 1105;
+                image[i + 1] = 1;
+                image[i + 2] = next;
+            }
+        }
+
+        // End of the instruction overwriting the store at index, -1 when the store isn't dead
+        private int deadStoreEnd(long[] image, int index) {
+            if (!isStore(image, index)) return -1;
+
+            var address = image[index + 3];
+            if (address >= 0 && address < program.length && starts[(int) address]) return -1;
+
+            for (var next = index + 4; next < program.length && starts[next] && !isVolatile(next); next += 4) {
+                var opCode = (int) (image[next] % 100);
+                if (!isStore(image, next)) return -1;
+
+                for (var operand = 1; operand <= inputs(opCode); operand++) {
+                    var mode = mode(image[next], operand);
+                    if (mode == IntcodeExecutor.MODE_RELATIVE) return -1;
+                    if (mode == IntcodeExecutor.MODE_POSITION && image[next + operand] == address) return -1;
+                }
+                if (image[next + 3] == address) return next + 4;
+            }
+            return -1;
+        }
+
+        // Arithmetic writing to a fixed position, the only instructions that are safe to walk over
+        private boolean isStore(long[] image, int index) {
+            if (!starts[index] || isVolatile(index)) return false;
+
+            var opCode = (int) (image[index] % 100);
+            if (opCode != IntcodeExecutor.ADD && opCode != IntcodeExecutor.MUL
+                    && opCode != IntcodeExecutor.LESS_THAN && opCode != IntcodeExecutor.EQUALS) return false;
+            return mode(image[index], 3) == IntcodeExecutor.MODE_POSITION && index + 3 < program.length;
+        }
+
+        private boolean alwaysJumps(int index) {
+            if (isVolatile(index) || mode(program[index], 1) != IntcodeExecutor.MODE_IMMEDIATE) return false;
+            return (program[index + 1] != 0) == (opCode(index) == IntcodeExecutor.JUMP_TRUE);
+        }
+
+        // Known target of a jump, -1 when it is computed at runtime
+        private long jumpTarget(int index) {
+            if (isVolatile(index)) return -1;
+
+            var operand = program[index + 2];
+            return switch (mode(program[index], 2)) {
+                case IntcodeExecutor.MODE_IMMEDIATE -> operand;
+                case IntcodeExecutor.MODE_POSITION ->
+                        operand >= 0 && operand < program.length && !written[(int) operand] ? program[(int) operand] : -1;
+                default -> -1;
+            };
+        }
+
+        private boolean isVolatile(int index) {
+            for (var cell = index + 1; cell < Math.min(program.length, index + length(index)); cell++) {
+                if (written[cell]) return true;
+            }
+            return false;
+        }
+
+        private int opCode(int index) {
+            return (int) (program[index] % 100);
+        }
+
+        // Zero for invalid instructions and ones running past the end of the program
+        private int length(int index) {
+            var length = switch (opCode(index)) {
+                case IntcodeExecutor.ADD, IntcodeExecutor.MUL, IntcodeExecutor.LESS_THAN, IntcodeExecutor.EQUALS -> 4;
+                case IntcodeExecutor.JUMP_TRUE, IntcodeExecutor.JUMP_FALSE -> 3;
+                case IntcodeExecutor.INPUT, IntcodeExecutor.OUTPUT, IntcodeExecutor.ADJUST_RELATIVE_BASE -> 2;
+                case IntcodeExecutor.HALT -> 1;
+                default -> 0;
+            };
+            return index + length <= program.length ? length : 0;
+        }
+
+        private static int inputs(int opCode) {
+            return switch (opCode) {
+                case IntcodeExecutor.ADD, IntcodeExecutor.MUL, IntcodeExecutor.LESS_THAN, IntcodeExecutor.EQUALS,
+                        IntcodeExecutor.JUMP_TRUE, IntcodeExecutor.JUMP_FALSE -> 2;
+                case IntcodeExecutor.OUTPUT, IntcodeExecutor.ADJUST_RELATIVE_BASE -> 1;
+                default -> 0;
+            };
+        }
+
+        private static int mode(long instruction, int operand) {
+            return (int) (instruction / MODE_DIVISORS[operand] % 10);
+        }
+    }
+
+    static class Optimization {
+        final long[] original;
+        final long[] image;
+        private final byte[] guards;
+
+        private Optimization(long[] original, long[] image, byte[] guards) {
+            this.original = original;
+            this.image = image;
+            this.guards = guards;
+        }
+
+        boolean guards(long address, byte guard) {
+            return address >= 0 && address < guards.length && (guards[(int) address] & guard) != 0;
+        }
+    }
+
+    static class Instruction {
+        final int value;
+        final int opCode;
+        final int[] modes = new int[3];
+        int hits;
+        Block block;
+        Instruction partner;
+
+        Instruction(int instruction) {
+            value = instruction;
+            opCode = instruction % 100;
+
+            var modes = instruction / 100;
+            for (var i = 0; i < this.modes.length; i++) {
+                this.modes[i] = modes % 10;
+                modes /= 10;
+            }
+        }
+    }
+
+    // Growable ring of queued inputs, values stay unboxed
+    static class LongQueue {
+        private long[] values = new long[16];
+        private int head;
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = toArray(values.length * 2);
+                head = 0;
+            }
+            values[(head + size++) & (values.length - 1)] = value;
+        }
+
+        void addAll(LongQueue other) {
+            for (var i = 0; i < other.size; i++) {
+                add(other.values[(other.head + i) & (other.values.length - 1)]);
+            }
+        }
+
+        long poll() {
+            if (size == 0) {
+                throw new IllegalStateException("Queue is empty");
+            }
+            var value = values[head];
+            head = (head + 1) & (values.length - 1);
+            size--;
+            return value;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void clear() {
+            head = 0;
+            size = 0;
+        }
+
+        long[] toArray() {
+            return toArray(size);
+        }
+
+        private long[] toArray(int length) {
+            var copy = new long[length];
+            for (var i = 0; i < size; i++) {
+                copy[i] = values[(head + i) & (values.length - 1)];
+            }
+            return copy;
+        }
+    }
+
+    static class Snapshot {
+        private final Memory memory;
+        private final int instructionPointer;
+        private final long relativeBase;
+        private final Optimization optimization;
+        private final long[] inputs;
+        private final long output;
+        private final int emptyPolls;
+        private final Status suspendedOn;
+        private final boolean failed;
+        private final boolean halted;
+
+        private Snapshot(IntcodeExecutor executor) {
+            memory = executor.memory.copy();
+            instructionPointer = executor.instructionPointer;
+            relativeBase = executor.relativeBase;
+            optimization = executor.optimization;
+            inputs = executor.inputs.toArray();
+            output = executor.output;
+            emptyPolls = executor.emptyPolls;
+            suspendedOn = executor.suspendedOn;
+            failed = executor.failed;
+            halted = executor.halted;
+        }
+    }
+
+    static class Memory {
+        // Low addresses live in one flat array that grows on demand, everything above goes to pages
+        private static final int DENSE_LIMIT = 1 << 16;
+        private static final int PAGE_BITS = 10;
+        private static final int PAGE_SIZE = 1 << PAGE_BITS;
+        private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+        private final Map<Long, long[]> pages = new HashMap<>();
+        // The flat array holds ints until the first value that doesn't fit, then it is widened for good
+        private int[] narrow;
+        private long[] dense;
+
+        Memory(long[] numbers) {
+            var length = Math.min(DENSE_LIMIT, Math.max(PAGE_SIZE, numbers.length));
+            if (fitsInt(numbers)) {
+                narrow = new int[length];
+            } else {
+                dense = new long[length];
+            }
+            for (var i = 0; i < numbers.length; i++) {
+                write(i, numbers[i]);
+            }
+        }
+
+        // Copies the flat array, which covers the program and doubles past the highest low address written, and
+        // every touched page above it. A program that once writes near DENSE_LIMIT pays for the whole flat array
+        // on each copy, paging it instead would slow down every access
+        private Memory(Memory other) {
+            if (other.narrow != null) {
+                narrow = Arrays.copyOf(other.narrow, other.narrow.length);
+            } else {
+                dense = Arrays.copyOf(other.dense, other.dense.length);
+            }
+            other.pages.forEach((page, values) -> pages.put(page, Arrays.copyOf(values, values.length)));
+        }
+
+        Memory copy() {
+            return new Memory(this);
+        }
+
+        // Refills this memory with a program, the flat array is reused when it is large enough and
+        // stays wide once it was widened
+        void reset(long[] numbers) {
+            var length = Math.min(DENSE_LIMIT, numbers.length);
+            if (narrow != null && !fitsInt(numbers)) {
+                widen();
+            }
+
+            if (narrow != null) {
+                if (narrow.length < length) {
+                    narrow = new int[length];
+                }
+                for (var i = 0; i < length; i++) {
+                    narrow[i] = (int) numbers[i];
+                }
+                Arrays.fill(narrow, length, narrow.length, 0);
+            } else if (dense.length < length) {
+                dense = Arrays.copyOf(numbers, length);
+            } else {
+                System.arraycopy(numbers, 0, dense, 0, length);
+                Arrays.fill(dense, length, dense.length, 0);
+            }
+
+            pages.clear();
+            for (var i = length; i < numbers.length; i++) {
+                write(i, numbers[i]);
+            }
+        }
+
+        long read(long address) {
+            var narrow = this.narrow;
+            if (narrow != null) {
+                if (address >= 0 && address < narrow.length) return narrow[(int) address];
+            } else if (address >= 0 && address < dense.length) {
+                return dense[(int) address];
+            }
+            return readSparse(address);
+        }
+
+        void write(long address, long value) {
+            var narrow = this.narrow;
+            if (narrow != null) {
+                // Operands were ints, so their sum or product is exact in a long and only the store can overflow
+                var small = (int) value;
+                if (address >= 0 && address < narrow.length && small == value) {
+                    narrow[(int) address] = small;
+                    return;
+                }
+            } else if (address >= 0 && address < dense.length) {
+                dense[(int) address] = value;
+                return;
+            }
+            writeSparse(address, value);
+        }
+
+        long[] range(long from, long to) {
+            var values = new long[(int) (to - from)];
+            for (var i = 0; i < values.length; i++) {
+                values[i] = read(from + i);
+            }
+            return values;
+        }
+
+        private long readSparse(long address) {
+            checkAddress(address);
+            if (address < DENSE_LIMIT) return 0;
+
+            var values = pages.get(address >>> PAGE_BITS);
+            return values == null ? 0 : values[(int) address & PAGE_MASK];
+        }
+
+        private void writeSparse(long address, long value) {
+            checkAddress(address);
+            if (address >= DENSE_LIMIT) {
+                pages.computeIfAbsent(address >>> PAGE_BITS, ignored -> new long[PAGE_SIZE])[(int) address & PAGE_MASK] = value;
+                return;
+            }
+
+            if (narrow != null && (int) value != value) {
+                widen();
+            }
+            var length = narrow != null ? narrow.length : dense.length;
+            if (address >= length) {
+                var grown = (int) Math.min(DENSE_LIMIT, Math.max(address + 1, length * 2L));
+                if (narrow != null) {
+                    narrow = Arrays.copyOf(narrow, grown);
+                } else {
+                    dense = Arrays.copyOf(dense, grown);
+                }
+            }
+            write(address, value);
+        }
+
+        private void widen() {
+            dense = new long[narrow.length];
+            for (var i = 0; i < narrow.length; i++) {
+                dense[i] = narrow[i];
+            }
+            narrow = null;
+        }
+
+        private static boolean fitsInt(long[] numbers) {
+            for (var value : numbers) {
+                if ((int) value != value) return false;
+            }
+            return true;
+        }
+
+        private static void checkAddress(long address) {
+            if (address < 0) {
+                throw new IllegalStateException("Invalid address: " + address);
+            }
+        }
+    }
+
+    interface CompiledBlock {
+        int run(IntcodeExecutor executor);
+    }
+
+    static class Block {
+        final int start;
+        final int end;
+        final long[] source;
+        final int instructions;
+        final CompiledBlock code;
+
+        Block(int start, long[] source, int instructions, CompiledBlock code) {
+            this.start = start;
+            this.end = start + source.length;
+            this.source = source;
+            this.instructions = instructions;
+            this.code = code;
+        }
+
+        boolean matches(Memory memory) {
+            for (var i = 0; i < source.length; i++) {
+                if (source[i] != memory.read(start + i)) return false;
+            }
+            return true;
+        }
+    }
+
+    // Translates a run of instructions up to the next jump into a hidden class that calls
+    // back into the executor for memory access, so HotSpot sees straight-line code
+    static class BlockCompiler {
+        private static final int MAX_INSTRUCTIONS = 200;
+        private static final String EXECUTOR = "Day09$IntcodeExecutor";
+        private static final String EXECUTOR_TYPE = "L" + EXECUTOR + ";";
+
+        private static final int MAX_STARTS = 4096;
+        private static final int MAX_VARIANTS = 8;
+
+        // Generated code holds no executor state, so blocks are shared by every VM running the same code.
+        // Least recently used starts are evicted, the hidden classes are unloaded once no executor holds them
+        private static final Map<Integer, List<Block>> CACHE = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<Block>> eldest) {
+                return size() > MAX_STARTS;
+            }
+        };
+
+        private static volatile boolean disabled;
+
+        static Block compile(IntcodeExecutor executor, int start) {
+            if (disabled) return null;
+
+            synchronized (CACHE) {
+                var candidates = CACHE.get(start);
+                if (candidates != null) {
+                    for (var candidate : candidates) {
+                        if (candidate.matches(executor.memory)) return candidate;
+                    }
+                }
+            }
+
+            var block = translate(executor, start);
+            if (block != null) {
+                synchronized (CACHE) {
+                    var candidates = CACHE.computeIfAbsent(start, ignored -> new ArrayList<>());
+                    if (candidates.size() == MAX_VARIANTS) {
+                        candidates.remove(0);
+                    }
+                    candidates.add(block);
+                }
+            }
+            return block;
+        }
+
+        private static Block translate(IntcodeExecutor executor, int start) {
+            var classFile = new ClassFile();
+            var code = classFile.code;
+            var index = start;
+            var count = 0;
+            var end = -1;
+
+            while (end < 0) {
+                var optimization = executor.optimization;
+                if (optimization != null && optimization.guards(index, Optimizer.GUARD_FETCH)) {
+                    // The interpreter restores the original code before running this
+                    if (count == 0) return null;
+                    classFile.loadInt(index);
+                    code.write(0xac);
+                    end = index;
+                    continue;
+                }
+
+                var instruction = executor.decode(index);
+                var modes = instruction.modes;
+                switch (instruction.opCode) {
+                    case IntcodeExecutor.ADD, IntcodeExecutor.MUL, IntcodeExecutor.LESS_THAN, IntcodeExecutor.EQUALS -> {
+                        code.write(0x2b); // aload_1
+                        if (!classFile.target(executor, modes[2], index + 3)) return null;
+                        if (!classFile.operand(executor, modes[0], index + 1)) return null;
+                        if (!classFile.operand(executor, modes[1], index + 2)) return null;
+                        switch (instruction.opCode) {
+                            case IntcodeExecutor.ADD -> code.write(0x61); // ladd
+                            case IntcodeExecutor.MUL -> code.write(0x69); // lmul
+                            // lcmp yields -1 when less, shift the sign bit down
+                            case IntcodeExecutor.LESS_THAN -> code.write(new byte[]{(byte) 0x94, 0x10, 31, 0x7c, (byte) 0x85}, 0, 5);
+                            // lcmp yields 0 when equal, compute 1 - cmp * cmp
+                            default -> code.write(new byte[]{(byte) 0x94, 0x59, 0x68, 0x04, 0x5f, 0x64, (byte) 0x85}, 0, 7);
+                        }
+                        classFile.invoke("write", "(JJ)V");
+                        index += 4;
+                        classFile.returnIfCodeWritten(index);
+                    }
+                    case IntcodeExecutor.ADJUST_RELATIVE_BASE -> {
+                        code.write(0x2b);
+                        if (!classFile.operand(executor, modes[0], index + 1)) return null;
+                        classFile.invoke("moveRelativeBase", "(J)V");
+                        index += 2;
+                    }
+                    case IntcodeExecutor.JUMP_TRUE, IntcodeExecutor.JUMP_FALSE -> {
+                        code.write(0x2b);
+                        if (!classFile.operand(executor, modes[0], index + 1)) return null;
+                        if (!classFile.operand(executor, modes[1], index + 2)) return null;
+                        index += 3;
+                        classFile.loadInt(index);
+                        var name = instruction.opCode == IntcodeExecutor.JUMP_TRUE ? "branchIfTrue" : "branchIfFalse";
+                        classFile.invoke(name, "(JJI)I");
+                        code.write(0xac); // ireturn
+                        count++;
+                        end = index;
+                    }
+                    default -> {
+                        // Input, output and halt are left to the interpreter
+                        if (count == 0) return null;
+                        classFile.loadInt(index);
+                        code.write(0xac);
+                        end = index;
+                    }
+                }
+
+                if (end < 0 && ++count == MAX_INSTRUCTIONS) {
+                    classFile.loadInt(index);
+                    code.write(0xac);
+                    end = index;
+                }
+            }
+
+            try {
+                var lookup = MethodHandles.lookup().defineHiddenClass(classFile.toBytes(), true);
+                var constructor = lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class));
+                var source = executor.memory.range(start, end);
+                return new Block(start, source, count, (CompiledBlock) constructor.invoke());
+            } catch (Throwable e) {
+                // Stay on the interpreter if the runtime refuses to load generated classes
+                disabled = true;
+                return null;
+            }
+        }
+
+        private static class ClassFile {
+            private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+            private final DataOutputStream poolOutput = new DataOutputStream(pool);
+            private final Map<String, Integer> constants = new HashMap<>();
+            private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+            private int poolSize = 1;
+
+            boolean operand(IntcodeExecutor executor, int mode, int index) {
+                var value = executor.memory.read(index);
+                switch (mode) {
+                    case IntcodeExecutor.MODE_POSITION -> {
+                        code.write(0x2b);
+                        loadLong(value);
+                        invoke("read", "(J)J");
+                    }
+                    case IntcodeExecutor.MODE_IMMEDIATE -> loadLong(value);
+                    case IntcodeExecutor.MODE_RELATIVE -> {
+                        code.write(0x2b);
+                        code.write(0x2b);
+                        loadLong(value);
+                        invoke("relativeAddress", "(J)J");
+                        invoke("read", "(J)J");
+                    }
+                    default -> {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            boolean target(IntcodeExecutor executor, int mode, int index) {
+                var value = executor.memory.read(index);
+                switch (mode) {
+                    case IntcodeExecutor.MODE_POSITION -> loadLong(value);
+                    case IntcodeExecutor.MODE_IMMEDIATE -> loadLong(index);
+                    case IntcodeExecutor.MODE_RELATIVE -> {
+                        code.write(0x2b);
+                        loadLong(value);
+                        invoke("relativeAddress", "(J)J");
+                    }
+                    default -> {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            void returnIfCodeWritten(int next) {
+                code.write(0x2b);
+                code.write(0xb4); // getfield
+                writeShort(code, constant("F" + EXECUTOR + ".codeWritten:Z", () -> {
+                    var nameAndType = nameAndType("codeWritten", "Z");
+                    var owner = classConstant(EXECUTOR);
+                    poolOutput.writeByte(9);
+                    poolOutput.writeShort(owner);
+                    poolOutput.writeShort(nameAndType);
+                }));
+                // ifeq over the following ldc_w and ireturn
+                code.write(0x99);
+                writeShort(code, 7);
+                loadInt(next);
+                code.write(0xac);
+            }
+
+            void invoke(String name, String descriptor) {
+                code.write(0xb6); // invokevirtual
+                writeShort(code, methodConstant(EXECUTOR, name, descriptor));
+            }
+
+            void loadLong(long value) {
+                code.write(0x14); // ldc2_w
+                // Long constants take up two pool slots
+                writeShort(code, constant("J" + value, 2, () -> {
+                    poolOutput.writeByte(5);
+                    poolOutput.writeLong(value);
+                }));
+            }
+
+            void loadInt(int value) {
+                code.write(0x13); // ldc_w
+                writeShort(code, constant("I" + value, () -> {
+                    poolOutput.writeByte(3);
+                    poolOutput.writeInt(value);
+                }));
+            }
+
+            byte[] toBytes() {
+                var thisClass = classConstant("Day09$CompiledRegion");
+                var superClass = classConstant("java/lang/Object");
+                var blockInterface = classConstant("Day09$CompiledBlock");
+                var superConstructor = methodConstant("java/lang/Object", "<init>", "()V");
+                var codeName = utf8("Code");
+                var constructorName = utf8("<init>");
+                var constructorType = utf8("()V");
+                var runName = utf8("run");
+                var runType = utf8("(" + EXECUTOR_TYPE + ")I");
+
+                var bytes = new ByteArrayOutputStream();
+                try (var output = new DataOutputStream(bytes)) {
+                    output.writeInt(0xCAFEBABE);
+                    // Pre-stackmap class version, straight-line code with a few forward skips
+                    output.writeShort(0);
+                    output.writeShort(49);
+                    output.writeShort(poolSize);
+                    pool.writeTo(output);
+                    output.writeShort(0x0031); // public final super
+                    output.writeShort(thisClass);
+                    output.writeShort(superClass);
+                    output.writeShort(1);
+                    output.writeShort(blockInterface);
+                    output.writeShort(0);
+                    output.writeShort(2);
+
+                    var constructor = new byte[]{0x2a, (byte) 0xb7, (byte) (superConstructor >> 8), (byte) superConstructor, (byte) 0xb1};
+                    writeMethod(output, constructorName, constructorType, codeName, 1, 1, constructor);
+                    writeMethod(output, runName, runType, codeName, 10, 2, code.toByteArray());
+
+                    output.writeShort(0);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return bytes.toByteArray();
+            }
+
+            private static void writeMethod(DataOutputStream output, int name, int type, int codeName,
+                                            int maxStack, int maxLocals, byte[] code) throws IOException {
+                output.writeShort(0x0001); // public
+                output.writeShort(name);
+                output.writeShort(type);
+                output.writeShort(1);
+                output.writeShort(codeName);
+                output.writeInt(12 + code.length);
+                output.writeShort(maxStack);
+                output.writeShort(maxLocals);
+                output.writeInt(code.length);
+                output.write(code);
+                output.writeShort(0);
+                output.writeShort(0);
+            }
+
+            private int methodConstant(String owner, String name, String descriptor) {
+                return constant("M" + owner + "." + name + descriptor, () -> {
+                    var nameAndType = nameAndType(name, descriptor);
+                    var ownerClass = classConstant(owner);
+                    poolOutput.writeByte(10);
+                    poolOutput.writeShort(ownerClass);
+                    poolOutput.writeShort(nameAndType);
+                });
+            }
+
+            private int nameAndType(String name, String descriptor) {
+                return constant("N" + name + ":" + descriptor, () -> {
+                    var nameIndex = utf8(name);
+                    var descriptorIndex = utf8(descriptor);
+                    poolOutput.writeByte(12);
+                    poolOutput.writeShort(nameIndex);
+                    poolOutput.writeShort(descriptorIndex);
+                });
+            }
+
+            private int classConstant(String name) {
+                return constant("C" + name, () -> {
+                    var nameIndex = utf8(name);
+                    poolOutput.writeByte(7);
+                    poolOutput.writeShort(nameIndex);
+                });
+            }
+
+            private int utf8(String value) {
+                return constant("U" + value, () -> {
+                    poolOutput.writeByte(1);
+                    poolOutput.writeUTF(value);
+                });
+            }
+
+            // Dependencies are added before the entry itself, so the index is taken after writing them
+            private int constant(String key, PoolWriter writer) {
+                return constant(key, 1, writer);
+            }
+
+            private int constant(String key, int slots, PoolWriter writer) {
+                var existing = constants.get(key);
+                if (existing != null) return existing;
+
+                try {
+                    writer.write();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                var index = poolSize;
+                poolSize += slots;
+                constants.put(key, index);
+                return index;
+            }
+
+            private static void writeShort(ByteArrayOutputStream output, int value) {
+                output.write(value >> 8);
+                output.write(value);
+            }
+        }
+
+        private interface PoolWriter {
+            void write() throws IOException;
+        }
+    }
 }
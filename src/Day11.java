@@ -1,17 +1,12 @@
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Objects;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class Day11 {
     public static void main(String[] args) throws IOException {
-        var input = Files.readString(Paths.get("input11.txt")).trim();
-        var instructions = Stream.of(input.split(","))
-                .mapToLong(Long::parseLong)
-                .toArray();
+        var instructions = Day09.ProgramLoader.load(Paths.get("input11.txt"));
 
         part01(instructions);
         part02(instructions);
@@ -1,11 +1,9 @@
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.LongBuffer;
 import java.nio.file.Paths;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Objects;
-import java.util.stream.Stream;
 
 public class Day13 {
     private static final long BLOCK = 2;
@@ -13,10 +11,7 @@ public class Day13 {
     private static final long BALL = 4;
 
     public static void main(String[] args) throws IOException {
-        var input = Files.readString(Paths.get("input13.txt")).trim();
-        var numbers = Stream.of(input.split(","))
-                .mapToLong(Long::parseLong)
-                .toArray();
+        var numbers = Day09.ProgramLoader.load(Paths.get("input13.txt"));
 
         part01(numbers);
         part02(numbers);
@@ -28,13 +23,9 @@ public class Day13 {
 
         var screen = new HashMap<Point, Long>();
 
-        var iterator = executor.outputs.iterator();
-        while (iterator.hasNext()) {
-            var x = iterator.next();
-            var y = iterator.next();
-            var type = iterator.next();
-
-            screen.put(new Point(x, y), type);
+        var outputs = executor.outputs;
+        for (var i = 0; i + 2 < executor.outputCount; i += 3) {
+            screen.put(new Point(outputs[i], outputs[i + 1]), outputs[i + 2]);
         }
 
         var count = screen.values().stream()
@@ -74,48 +65,66 @@ public class Day13 {
         }
     }
 
-    static class Arcade extends Day09.IntcodeExecutor {
-        List<Long> outputs = new ArrayList<>();
+    // Screen dumps arrive in bulk, so tiles are copied straight from the VM's output buffer
+    static class Arcade extends Day09.IntcodeExecutor implements Day09.LongChannel {
+        long[] outputs = new long[1_024];
+        int outputCount;
 
         Arcade(long[] numbers) {
             super(numbers);
+            connect(this);
         }
 
         @Override
-        protected void produceLong(long value) {
-            outputs.add(value);
+        public void fill(LongBuffer buffer) {
+        }
+
+        @Override
+        public void drain(LongBuffer buffer) {
+            var length = buffer.remaining();
+            if (outputCount + length > outputs.length) {
+                outputs = Arrays.copyOf(outputs, Math.max(outputCount + length, outputs.length * 2));
+            }
+            buffer.get(outputs, outputCount, length);
+            outputCount += length;
         }
     }
 
-    static class InteractiveArcade extends Day09.IntcodeExecutor {
-        List<Long> output = new ArrayList<>();
+    static class InteractiveArcade extends Day09.IntcodeExecutor implements Day09.LongChannel {
+        private final long[] output = new long[3];
+        private int outputCount;
         Point paddle;
         Point ball;
 
         InteractiveArcade(long[] numbers) {
             super(numbers);
+            connect(this);
         }
 
+        // All tiles drawn so far were drained first, so the joystick follows the latest ball position
         @Override
-        protected long acceptLong() {
+        public void fill(LongBuffer buffer) {
             if (ball == null || paddle == null) {
-                return 0;
+                buffer.put(0);
+            } else {
+                buffer.put((long) Math.signum(ball.x - paddle.x));
             }
-            return (long) Math.signum(ball.x - paddle.x);
         }
 
         @Override
-        protected void produceLong(long value) {
-            output.add(value);
-            if (output.size() == 3) {
-                if (output.get(0) == -1 && output.get(1) == 0) {
-                    System.out.println("Score: " + output.get(2));
-                } else if (output.get(2) == PADDLE) {
-                    paddle = new Point(output.get(0), output.get(1));
-                } else if (output.get(2) == BALL) {
-                    ball = new Point(output.get(0), output.get(1));
+        public void drain(LongBuffer buffer) {
+            while (buffer.hasRemaining()) {
+                output[outputCount++] = buffer.get();
+                if (outputCount < 3) continue;
+
+                if (output[0] == -1 && output[1] == 0) {
+                    System.out.println("Score: " + output[2]);
+                } else if (output[2] == PADDLE) {
+                    paddle = new Point(output[0], output[1]);
+                } else if (output[2] == BALL) {
+                    ball = new Point(output[0], output[1]);
                 }
-                output.clear();
+                outputCount = 0;
             }
         }
     }
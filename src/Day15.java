@@ -1,9 +1,7 @@
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class Day15 {
     private static final int NORTH = 1;
@@ -16,30 +14,27 @@ public class Day15 {
     private static final int OXYGEN = 2;
 
     public static void main(String[] args) throws IOException {
-        var input = Files.readString(Paths.get("input15.txt")).trim();
-        var instructions = Stream.of(input.split(","))
-                .mapToLong(Long::parseLong)
-                .toArray();
+        var instructions = Day09.ProgramLoader.load(Paths.get("input15.txt"));
 
-        // Explore the map
+        // Explore the map, forking the droid at every open cell instead of replaying the path
         var map = new HashMap<Point, Integer>();
         map.put(new Point(0, 0), MOVED);
 
-        var inputs = new ArrayDeque<>(List.of(
-                List.of(NORTH),
-                List.of(SOUTH),
-                List.of(WEST),
-                List.of(EAST)
-        ));
-
-        while (inputs.size() > 0) {
-            var path = inputs.removeFirst();
-            var executor = new IntcodeExecutor(instructions, path);
-            executor.execute();
-            var output = executor.lastOutput();
-            map.put(Point.fromPath(path), output);
-            if (output != WALL) {
-                handleMoved(map, path, inputs);
+        var droids = new ArrayDeque<IntcodeExecutor>();
+        droids.add(new IntcodeExecutor(instructions));
+
+        while (droids.size() > 0) {
+            var droid = droids.removeFirst();
+            for (var direction = NORTH; direction <= EAST; direction++) {
+                var target = droid.location.move(direction);
+                if (map.containsKey(target)) continue;
+
+                var moved = droid.fork();
+                var output = moved.move(direction);
+                map.put(target, output);
+                if (output != WALL) {
+                    droids.add(moved);
+                }
             }
         }
 
@@ -94,16 +89,6 @@ public class Day15 {
         System.out.println(steps);
     }
 
-    private static void handleMoved(Map<Point, Integer> visited, List<Integer> path, Deque<List<Integer>> inputs) {
-        for (var i = 1; i <= 4; i++) {
-            var pathCopy = new ArrayList<>(path);
-            pathCopy.add(i);
-            if (!visited.containsKey(Point.fromPath(pathCopy)) && !inputs.contains(pathCopy)) {
-                inputs.add(pathCopy);
-            }
-        }
-    }
-
     static class Point {
         int x;
         int y;
@@ -113,20 +98,14 @@ public class Day15 {
             this.y = y;
         }
 
-        public static Point fromPath(List<Integer> path) {
-            var x = 0;
-            var y = 0;
-
-            for (var direction : path) {
-                switch (direction) {
-                    case NORTH -> y++;
-                    case SOUTH -> y--;
-                    case WEST -> x--;
-                    case EAST -> x++;
-                }
-            }
-
-            return new Point(x, y);
+        public Point move(int direction) {
+            return switch (direction) {
+                case NORTH -> new Point(x, y + 1);
+                case SOUTH -> new Point(x, y - 1);
+                case WEST -> new Point(x - 1, y);
+                case EAST -> new Point(x + 1, y);
+                default -> throw new IllegalArgumentException("Invalid direction");
+            };
         }
 
         @Override
@@ -155,12 +134,36 @@ public class Day15 {
     }
 
     static class IntcodeExecutor extends Day09.IntcodeExecutor {
-        private final List<Integer> inputs;
-        private final List<Integer> outputs = new ArrayList<>();
+        private final List<Integer> inputs = new ArrayList<>();
+        private int lastOutput;
+        private Point location = new Point(0, 0);
 
-        IntcodeExecutor(long[] numbers, List<Integer> inputs) {
+        IntcodeExecutor(long[] numbers) {
             super(numbers);
-            this.inputs = new ArrayList<>(inputs);
+        }
+
+        private IntcodeExecutor(IntcodeExecutor other) {
+            super(other);
+            inputs.addAll(other.inputs);
+            lastOutput = other.lastOutput;
+            location = other.location;
+        }
+
+        @Override
+        public IntcodeExecutor fork() {
+            return new IntcodeExecutor(this);
+        }
+
+        int move(int direction) {
+            inputs.add(direction);
+            halted = false;
+            execute();
+
+            var output = lastOutput();
+            if (output != WALL) {
+                location = location.move(direction);
+            }
+            return output;
         }
 
         @Override
@@ -170,14 +173,14 @@ public class Day15 {
 
         @Override
         protected void produceLong(long value) {
-            outputs.add((int) value);
+            lastOutput = (int) value;
             if (inputs.size() == 0) {
                 halted = true;
             }
         }
 
         int lastOutput() {
-            return outputs.get(outputs.size() - 1);
+            return lastOutput;
         }
     }
 }
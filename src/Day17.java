@@ -1,7 +1,6 @@
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.LongBuffer;
 import java.nio.file.Paths;
-import java.util.stream.Stream;
 
 public class Day17 {
     private static final char[] PATH_PROGRAM = """
@@ -14,10 +13,7 @@ public class Day17 {
             """.toCharArray();
 
     public static void main(String[] args) throws IOException {
-        var program = Stream.of(Files.readString(Paths.get("input17.txt")).trim()
-                .split(","))
-                .mapToLong(Long::parseLong)
-                .toArray();
+        var program = Day09.ProgramLoader.load(Paths.get("input17.txt"));
 
         part01(program);
         part02(program);
@@ -68,7 +64,8 @@ public class Day17 {
         return field;
     }
 
-    static class IntcodeExecutor extends Day09.IntcodeExecutor {
+    // Camera frames are drained a buffer at a time straight into the builder
+    static class IntcodeExecutor extends Day09.IntcodeExecutor implements Day09.LongChannel {
         private final char[] asciiProgram;
         private StringBuilder builder = new StringBuilder();
         private int index;
@@ -76,19 +73,25 @@ public class Day17 {
         IntcodeExecutor(long[] numbers, char[] asciiProgram) {
             super(numbers);
             this.asciiProgram = asciiProgram;
+            connect(this);
         }
 
         @Override
-        protected long acceptLong() {
-            return asciiProgram[index++];
+        public void fill(LongBuffer buffer) {
+            while (buffer.hasRemaining() && index < asciiProgram.length) {
+                buffer.put(asciiProgram[index++]);
+            }
         }
 
         @Override
-        protected void produceLong(long value) {
-            if (value < 127) {
-                builder.append((char) value);
-            } else {
-                System.out.println(value);
+        public void drain(LongBuffer buffer) {
+            while (buffer.hasRemaining()) {
+                var value = buffer.get();
+                if (value < 127) {
+                    builder.append((char) value);
+                } else {
+                    System.out.println(value);
+                }
             }
         }
 
@@ -1,81 +1,209 @@
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.stream.Stream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class Day19 {
-    public static void main(String[] args) throws IOException, InterruptedException {
-        var input = Files.readString(Paths.get("input19.txt")).trim();
-        var instructions = Stream.of(input.split(","))
-                .mapToLong(Long::parseLong)
-                .toArray();
+    private static final int SQUARE_SIZE = 100;
+
+    public static void main(String[] args) throws IOException {
+        var instructions = Day09.ProgramLoader.load(Paths.get("input19.txt"));
 
         part01(instructions);
         part02(instructions);
     }
 
-    private static void part01(long[] instructions) throws InterruptedException {
-        var pulledCount = 0;
+    private static void part01(long[] instructions) {
+        var probes = new long[50 * 50][];
         for (var y = 0; y < 50; y++) {
             for (var x = 0; x < 50; x++) {
-                pulledCount += getPulledResult(instructions, x, y);
+                probes[y * 50 + x] = new long[]{x, y};
             }
         }
+
+        var pulledCount = Arrays.stream(new Day09.Batch(instructions).run(probes))
+                .mapToLong(outputs -> outputs[0])
+                .sum();
         System.out.println(pulledCount);
     }
 
-    private static void part02(long[] instructions) throws InterruptedException {
-        var startX = 0;
-        var y = 10; // Unbroken beam starts here
+    private static void part02(long[] instructions) {
+        var beam = new Beam(instructions);
+        var y = beam.firstSquareRow(SQUARE_SIZE);
+        System.out.println(beam.left(y + SQUARE_SIZE - 1) * 10_000 + y);
+    }
+
+    // Tracks the beam edges row by row, probing only O(log width) cells per row, every probe is cached.
+    // The beam is taken to be a cone from the origin: a cell is pulled when a * y <= x <= b * y, so each
+    // edge is within one cell of a straight line
+    static class Beam {
+        private final long[] instructions;
+        private final Day09.IntcodeExecutor drone;
+        private final Map<Long, Boolean> probes = new HashMap<>();
+        private final TreeMap<Long, long[]> rows = new TreeMap<>();
+        private long startRow = -1;
+
+        Beam(long[] instructions) {
+            this.instructions = instructions;
+            this.drone = new Day09.IntcodeExecutor(instructions);
+        }
+
+        // Gallops over rows until a size x size square fits between the edges and bisects down to a fitting row.
+        // Fitting isn't monotonic near the answer, so rows below are then scanned until enough fail in a row
+        long firstSquareRow(int size) {
+            if (size < 3) {
+                throw new IllegalArgumentException("Rows before the start row can hold squares below size 3");
+            }
+
+            long low = startRow();
+            long high = low;
+            while (!fits(high, size)) {
+                low = high;
+                high *= 2;
+            }
 
-        while (true) {
-            y++;
-            while (getPulledResult(instructions, startX, y) == 0) {
-                startX++;
+            while (low < high) {
+                var middle = (low + high) >>> 1;
+                if (fits(middle, size)) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
             }
-            var x = startX;
-            while (getPulledResult(instructions, x + 99, y) == 1) {
-                if (getPulledResult(instructions, x, y + 99) == 1) {
-                    System.out.println(x * 10_000 + y);
-                    return;
+
+            // right(y) - left(y + size - 1) is within 2 of a line rising by b - a per row, so every fitting row
+            // lies in a run of fewer than 2 / (b - a) + 1 rows that starts where the line reaches size - 1.
+            // The width of a row is at most (b - a) * y + 1, which bounds b - a from below
+            var rate = (double) (right(high) - left(high)) / high;
+            var failuresNeeded = (long) Math.ceil(2 / rate) + 1;
+
+            var first = high;
+            var failures = 0L;
+            for (var y = high - 1; y >= startRow && failures < failuresNeeded; y--) {
+                if (fits(y, size)) {
+                    first = y;
+                    failures = 0;
+                } else {
+                    failures++;
                 }
-                x++;
             }
+            return first;
         }
-    }
 
-    private static long getPulledResult(long[] instructions, int x, int y) throws InterruptedException {
-        var program = new IntcodeExecutor(instructions);
-        new Thread(program::execute).start();
+        // First row from which every row is pulled somewhere: once a row is three cells wide, b - a >= 2 / y
+        // and every later row covers a stretch of at least two cells
+        long startRow() {
+            if (startRow >= 0) return startRow;
 
-        program.inputQueue.add((long) x);
-        program.inputQueue.add((long) y);
+            var y = firstPulledRow();
+            while (true) {
+                var inside = insidePoint(y);
+                if (inside >= 0) {
+                    var edges = new long[]{gallop(inside, y, -1), gallop(inside, y, 1)};
+                    if (edges[1] - edges[0] >= 2) {
+                        rows.put(y, edges);
+                        startRow = y;
+                        return y;
+                    }
+                }
+                y++;
+            }
+        }
 
-        return program.outputQueue.take();
-    }
+        // Walks the anti-diagonals x + y = d outward from the origin, which sweeps the whole quadrant
+        // without assuming the beam's direction
+        private long firstPulledRow() {
+            for (var d = 1L; ; d++) {
+                for (var y = 0L; y <= d; y++) {
+                    if (pulled(d - y, y)) {
+                        rows.put(y, new long[]{d - y, d - y});
+                        return y;
+                    }
+                }
+            }
+        }
+
+        // The top right corner sits on row y, the bottom left one on row y + size - 1
+        boolean fits(long y, int size) {
+            return right(y) - left(y + size - 1) >= size - 1;
+        }
+
+        long left(long y) {
+            return edges(y)[0];
+        }
 
-    static class IntcodeExecutor extends Day09.IntcodeExecutor {
-        private final BlockingQueue<Long> inputQueue = new ArrayBlockingQueue<>(10);
-        private final BlockingQueue<Long> outputQueue = new ArrayBlockingQueue<>(10);
+        long right(long y) {
+            return edges(y)[1];
+        }
+
+        private long[] edges(long y) {
+            var edges = rows.get(y);
+            if (edges != null) return edges;
+            if (y < startRow()) {
+                throw new IllegalArgumentException("Row " + y + " is before the start of the beam");
+            }
 
-        IntcodeExecutor(long[] numbers) {
-            super(numbers);
+            var inside = insidePoint(y);
+            edges = new long[]{gallop(inside, y, -1), gallop(inside, y, 1)};
+            rows.put(y, edges);
+            return edges;
         }
 
-        @Override
-        protected long acceptLong() {
-            try {
-                return inputQueue.take();
-            } catch (InterruptedException e) {
-                throw new RuntimeException();
+        // The middle of a known row lies between the edge lines, so scaled to row y it lies between them too
+        // and the cell just below or above it is pulled unless the row is empty, -1 then
+        private long insidePoint(long y) {
+            var reference = rows.floorEntry(y);
+            if (reference == null) {
+                reference = rows.ceilingEntry(y);
             }
+
+            var middle = (reference.getValue()[0] + reference.getValue()[1]) / 2.0;
+            var scaled = middle * y / reference.getKey();
+            var below = (long) Math.floor(scaled);
+            var above = (long) Math.ceil(scaled);
+            if (pulled(below, y)) return below;
+            if (above != below && pulled(above, y)) return above;
+            return -1;
         }
 
-        @Override
-        protected void produceLong(long value) {
-            outputQueue.offer(value);
+        // Last pulled x going in the given direction from a pulled cell, doubling the step then bisecting
+        private long gallop(long inside, long y, int direction) {
+            long step = 1;
+            var last = inside;
+            while (true) {
+                var next = inside + direction * step;
+                if (next < 0 || !pulled(next, y)) break;
+                last = next;
+                step *= 2;
+            }
+
+            var outside = inside + direction * step;
+            while (Math.abs(outside - last) > 1) {
+                var middle = (last + outside) / 2;
+                if (middle >= 0 && pulled(middle, y)) {
+                    last = middle;
+                } else {
+                    outside = middle;
+                }
+            }
+            return last;
+        }
+
+        boolean pulled(long x, long y) {
+            return probes.computeIfAbsent(y << 32 | x, ignored -> probe(x, y));
+        }
+
+        private boolean probe(long x, long y) {
+            drone.reset(instructions);
+            drone.addInput(x);
+            drone.addInput(y);
+
+            if (drone.run() != Day09.Status.HAS_OUTPUT) {
+                throw new IllegalStateException("Drone produced no output");
+            }
+            return drone.takeOutput() == 1;
         }
     }
 }
@@ -1,7 +1,5 @@
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.Arrays;
 
 public class Day21 {
     private static final char[] SPRING_SCRIPT_PART_1 = """
@@ -25,10 +23,7 @@ public class Day21 {
             """.toCharArray();
 
     public static void main(String[] args) throws IOException {
-        var input = Files.readString(Paths.get("input21.txt")).trim();
-        var instructions = Arrays.stream(input.split(","))
-                .mapToLong(Long::parseLong)
-                .toArray();
+        var instructions = Day09.ProgramLoader.load(Paths.get("input21.txt"));
 
         part01(instructions);
         part02(instructions);
@@ -1,167 +1,596 @@
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
-import java.util.function.Function;
 
 public class Day23 {
+    private static final int NETWORK_SIZE = 50;
+    private static final long NAT_ADDRESS = 255;
+    private static final long SIMULATION_QUANTUM = 1_000;
+
     public static void main(String[] args) throws IOException {
-        var input = Files.readString(Paths.get("input23.txt")).trim();
-        var instructions = Arrays.stream(input.split(","))
-                .mapToLong(Long::parseLong)
-                .toArray();
+        var instructions = Day09.ProgramLoader.load(Paths.get("input23.txt"));
+        var options = List.of(args);
+
+        var first = new Network(instructions, NETWORK_SIZE);
+        first.attach(NAT_ADDRESS, new Part01(first));
+        run(first, options);
 
-        execute(instructions, Part01::new);
-        execute(instructions, Part02::new);
+        var second = new Network(instructions, NETWORK_SIZE);
+        second.attach(NAT_ADDRESS, new Part02(second));
+        run(second, options);
     }
 
-    private static void execute(long[] instructions, Function<HashMap<Long, Computer>, Consumer<Packet>> handlerProducer) {
-        var computers = new HashMap<Long, Computer>();
-        var threads = new ArrayList<Thread>();
-        var packetHandler = handlerProducer.apply(computers);
+    private static void run(Network network, List<String> options) {
+        if (options.contains("simulate")) {
+            network.simulate(SIMULATION_QUANTUM);
+        } else {
+            network.execute();
+        }
 
-        for (var i = 0L; i < 50; i++) {
-            var computer = new Computer(instructions, packetHandler);
-            computers.put(i, computer);
-            computer.inputQueue.offer(Packet.singleValue(i));
-            threads.add(new Thread(computer::execute));
+        if (options.contains("stats")) {
+            System.out.println(network.statistics());
         }
-        threads.forEach(Thread::start);
     }
 
-    static class Computer extends Day09.IntcodeExecutor {
-        private final Queue<Packet> inputQueue = new ArrayDeque<>();
-        private final Consumer<Packet> consumer;
-        boolean wasLastOperationPoll;
+    // Computers are addressed densely from zero, any other address can be attached to a device like the NAT
+    static class Network implements PacketHandler {
+        private static final int HOT_NODES = 5;
 
-        private Packet packet;
+        private final Computer[] computers;
+        private final Map<Long, PacketHandler> devices = new HashMap<>();
+        private final LongAdder sentPackets = new LongAdder();
+        private final LongAdder droppedPackets = new LongAdder();
+        private final LongAccumulator queueDepth = new LongAccumulator(Math::max, 0);
+        private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
 
-        Computer(long[] numbers, Consumer<Packet> consumer) {
-            super(numbers);
-            this.consumer = consumer;
+        private Outbox outbox;
+        private long startTime;
+        private long endTime;
+
+        Network(long[] instructions, int size) {
+            computers = new Computer[size];
+            for (var i = 0; i < size; i++) {
+                computers[i] = new Computer(instructions, i, this);
+            }
         }
 
-        @Override
-        protected long acceptLong() {
-            var candidate = inputQueue.peek();
-            wasLastOperationPoll = true;
-            if (candidate == null) {
-                return -1;
+        void attach(long address, PacketHandler device) {
+            if (address >= 0 && address < computers.length) {
+                throw new IllegalArgumentException("Address " + address + " belongs to a computer");
             }
-            if (candidate.x != null) {
-                var value = candidate.x;
-                candidate.x = null;
-                return value;
+            devices.put(address, device);
+        }
+
+        Computer computer(long address) {
+            return computers[(int) address];
+        }
+
+        @Override
+        public boolean accept(long target, long x, long y) {
+            if (outbox != null) {
+                return outbox.accept(target, x, y);
             }
-            inputQueue.poll();
-            return candidate.y;
+            return route(target, x, y);
         }
 
         @Override
-        protected void produceLong(long value) {
-            wasLastOperationPoll = false;
-            if (packet == null) {
-                packet = new Packet(value);
-            } else if (packet.x == null) {
-                packet.x = value;
-            } else {
-                packet.y = value;
-                consumer.accept(packet);
-                packet = null;
+        public void onIdle() {
+            devices.values().forEach(PacketHandler::onIdle);
+        }
+
+        void stop() {
+            for (var computer : computers) {
+                computer.stop();
             }
         }
-    }
 
-    static class Packet {
-        long target;
-        Long x;
-        Long y;
+        // Runs every computer as a lightweight task on a small pool, idle computers are parked until a packet arrives
+        void execute() {
+            // FIFO scheduling, so a computer waiting on a full mailbox can't starve the one that drains it
+            var pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+                    ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+            var finished = new CountDownLatch(computers.length);
+            var tracker = new IdleTracker(this::onIdle);
+
+            startTime = System.nanoTime();
+            for (var computer : computers) {
+                computer.scheduleOn(pool, finished, tracker, this::fail);
+            }
+            for (var computer : computers) {
+                computer.wake();
+            }
+            tracker.release();
 
-        public Packet(long target) {
-            this.target = target;
+            try {
+                finished.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException("Interrupted while waiting for the network");
+            } finally {
+                pool.shutdown();
+                endTime = System.nanoTime();
+            }
+
+            var error = failure.get();
+            if (error != null) {
+                throw new IllegalStateException("A computer failed", error);
+            }
+        }
+
+        // The first failure stops the whole network, execute() rethrows it once every computer stopped
+        private void fail(RuntimeException error) {
+            failure.compareAndSet(null, error);
+            stop();
+        }
+
+        // Single threaded and reproducible, each computer runs a fixed quantum per tick in address order
+        // and packets sent during a tick are delivered once it ends
+        void simulate(long quantum) {
+            outbox = new Outbox();
+            startTime = System.nanoTime();
+
+            while (!Arrays.stream(computers).allMatch(Computer::isStopped)) {
+                var idle = true;
+                for (var computer : computers) {
+                    idle &= computer.simulate(quantum);
+                }
+
+                if (!outbox.isEmpty()) {
+                    outbox.flush(this::route);
+                } else if (idle) {
+                    onIdle();
+                }
+            }
+            endTime = System.nanoTime();
         }
 
-        public static Packet singleValue(long value) {
-            var packet = new Packet(0);
-            packet.y = value;
-            return packet;
+        String statistics() {
+            var seconds = Math.max(1, endTime - startTime) / 1e9;
+            var builder = new StringBuilder();
+            builder.append(String.format("Packets: %d sent, %d dropped, %.0f/s%n",
+                    sentPackets.sum(), droppedPackets.sum(), sentPackets.sum() / seconds));
+            builder.append(String.format("Queue depth: %d packets max%n", queueDepth.get()));
+
+            var hottest = Arrays.stream(computers)
+                    .sorted(Comparator.comparingLong(Computer::executedInstructions).reversed())
+                    .limit(HOT_NODES)
+                    .toArray(Computer[]::new);
+            for (var computer : hottest) {
+                builder.append(String.format("Node %d: %d instructions, %.0f/s%n", computer.address,
+                        computer.executedInstructions(), computer.executedInstructions() / seconds));
+            }
+            return builder.toString().trim();
+        }
+
+        // Returns false when the target's mailbox is full, the sender keeps the packet and tries again later
+        private boolean route(long target, long x, long y) {
+            if (target >= 0 && target < computers.length) {
+                var computer = computers[(int) target];
+                if (computer.isStopped()) {
+                    // Nobody will ever read it
+                    sentPackets.increment();
+                    droppedPackets.increment();
+                    return true;
+                }
+                if (!computer.deliver(x, y)) return false;
+
+                sentPackets.increment();
+                queueDepth.accumulate(computer.inputQueue.size());
+                return true;
+            }
+
+            sentPackets.increment();
+            var device = devices.get(target);
+            if (device == null) {
+                droppedPackets.increment();
+                return true;
+            }
+            return device.accept(target, x, y);
         }
     }
 
-    static class Part01 implements Consumer<Packet> {
-        private final Map<Long, Computer> computers;
+    interface PacketHandler {
+        // Returns false when the packet can't be taken right now
+        boolean accept(long target, long x, long y);
 
-        Part01(Map<Long, Computer> computers) {
-            this.computers = computers;
+        default void onIdle() {
         }
+    }
+
+    static class Outbox implements PacketHandler {
+        private long[] packets = new long[3 * 64];
+        private int size;
+        // Targets that rejected a packet on the last flush, senders to them stall instead of piling up packets
+        private final Set<Long> saturated = new HashSet<>();
 
         @Override
-        public void accept(Packet packet) {
-            if (packet.target == 255) {
-                System.out.println(packet.y);
-                computers.values().forEach(computer -> computer.halted = true);
-                return;
+        public boolean accept(long target, long x, long y) {
+            if (saturated.contains(target)) return false;
+            if (size + 3 > packets.length) {
+                packets = Arrays.copyOf(packets, packets.length * 2);
             }
+            packets[size++] = target;
+            packets[size++] = x;
+            packets[size++] = y;
+            return true;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
 
-            var computer = computers.get(packet.target);
-            if (computer == null) return;
-            computer.inputQueue.offer(packet);
+        // Rejected packets stay queued in their original order for the next flush
+        void flush(PacketHandler handler) {
+            var count = size;
+            size = 0;
+            saturated.clear();
+            for (var i = 0; i < count; i += 3) {
+                if (!handler.accept(packets[i], packets[i + 1], packets[i + 2])) {
+                    saturated.add(packets[i]);
+                    packets[size++] = packets[i];
+                    packets[size++] = packets[i + 1];
+                    packets[size++] = packets[i + 2];
+                }
+            }
         }
     }
 
-    static class Part02 implements Consumer<Packet>, Runnable {
-        private final Map<Long, Computer> computers;
-        private Packet natPacket;
-        private boolean shouldRun = true;
-        private long lastY = 0L;
+    // Counts running computers plus packets sent but not yet read, the network is idle when this drops to zero
+    static class IdleTracker {
+        // Starts with one extra hold, so the network can't look idle before every computer was started
+        private final AtomicInteger busy = new AtomicInteger(1);
+        private final Runnable onIdle;
 
-        Part02(Map<Long, Computer> computers) {
-            this.computers = computers;
-            new Thread(this).start();
+        IdleTracker(Runnable onIdle) {
+            this.onIdle = onIdle;
         }
 
-        @Override
-        public void accept(Packet packet) {
-            if (packet.target == 255) {
-                natPacket = packet;
+        void hold() {
+            busy.incrementAndGet();
+        }
+
+        void release() {
+            if (busy.decrementAndGet() == 0) {
+                onIdle.run();
+            }
+        }
+    }
+
+    static class Computer extends Day09.IntcodeExecutor {
+        // Number of run() slices before a busy computer yields its carrier thread to others
+        private static final int QUANTUM = 1_000;
+        private static final int MAILBOX_CAPACITY = 256;
+        // Upper bound for one run() slice, so a computer that never does I/O still notices stop()
+        private static final long SLICE_INSTRUCTIONS = 10_000;
+
+        private final Mailbox inputQueue = new Mailbox(MAILBOX_CAPACITY);
+        private final long address;
+        private final PacketHandler handler;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean stopRequested;
+
+        private int outputCount;
+        private long outputTarget;
+        private long outputX;
+        private long outputY;
+        // A sent packet the handler couldn't take yet, the computer doesn't run until it went out
+        private boolean hasPending;
+
+        private Executor carrier;
+        private CountDownLatch finished;
+        private IdleTracker tracker;
+        private Consumer<RuntimeException> onFailure;
+
+        Computer(long[] numbers, long address, PacketHandler handler) {
+            super(numbers);
+            this.address = address;
+            this.handler = handler;
+            addInput(address);
+            // The program gets -1 once when nothing is queued, polling again without output means it is idle
+            pollInputs(-1, 1);
+        }
+
+        void scheduleOn(Executor carrier, CountDownLatch finished, IdleTracker tracker,
+                        Consumer<RuntimeException> onFailure) {
+            this.carrier = carrier;
+            this.finished = finished;
+            this.tracker = tracker;
+            this.onFailure = onFailure;
+        }
+
+        // Returns false without blocking when the mailbox is full
+        boolean deliver(long x, long y) {
+            // Held until the packet is read, so the network stays busy while it is in flight
+            if (tracker != null) {
+                tracker.hold();
+            }
+            if (!inputQueue.put(x, y)) {
+                if (tracker != null) {
+                    tracker.release();
+                }
+                return false;
+            }
+            wake();
+            return true;
+        }
+
+        // Safe from any thread, the computer halts itself the next time it runs
+        void stop() {
+            stopRequested = true;
+            wake();
+        }
+
+        boolean isStopped() {
+            return stopRequested || halted;
+        }
+
+        void wake() {
+            if (carrier != null && scheduled.compareAndSet(false, true)) {
+                tracker.hold();
+                carrier.execute(this::step);
+            }
+        }
+
+        private void step() {
+            try {
+                runSlices();
+            } catch (RuntimeException e) {
+                halted = true;
+                onFailure.accept(e);
+                finished.countDown();
+            }
+        }
+
+        private void runSlices() {
+            if (stopRequested) {
+                halted = true;
+            }
+            if (hasPending && !halted && !sendPending()) {
+                // The target's mailbox is full, give its computer a turn on the carrier before trying again
+                carrier.execute(this::step);
                 return;
             }
 
-            var computer = computers.get(packet.target);
-            if (computer == null) return;
-            computer.inputQueue.offer(packet);
+            for (var slice = 0; slice < QUANTUM; slice++) {
+                if (stopRequested) {
+                    halted = true;
+                }
+                switch (run(SLICE_INSTRUCTIONS)) {
+                    case HAS_OUTPUT -> {
+                        produceLong(takeOutput());
+                        if (hasPending) {
+                            carrier.execute(this::step);
+                            return;
+                        }
+                    }
+                    case HALTED -> {
+                        finished.countDown();
+                        return;
+                    }
+                    case NEEDS_INPUT -> {
+                        park();
+                        return;
+                    }
+                }
+            }
+            // Yield the carrier, but stay scheduled
+            carrier.execute(this::step);
         }
 
-        @Override
-        public void run() {
-            while (shouldRun) {
-                var allComputers = computers.values().size();
-                var polling = computers.values()
-                        .stream()
-                        .filter(computer -> computer.inputQueue.isEmpty() && computer.wasLastOperationPoll)
-                        .count();
-                if (allComputers == polling) {
-                    if (natPacket == null) continue;
-                    if (lastY == natPacket.y) {
-                        System.out.println(natPacket.y);
-                        stop();
+        // Runs up to the quantum on the calling thread, returns true when the computer waits for packets or halted
+        boolean simulate(long quantum) {
+            if (stopRequested) {
+                halted = true;
+            }
+            if (hasPending && !halted && !sendPending()) return false;
+
+            var end = executedInstructions() + quantum;
+            while (!halted) {
+                var remaining = end - executedInstructions();
+                if (remaining <= 0) return false;
+
+                switch (run(remaining)) {
+                    case HAS_OUTPUT -> {
+                        produceLong(takeOutput());
+                        if (hasPending) return false;
+                    }
+                    case NEEDS_INPUT -> {
+                        return true;
                     }
+                    case YIELDED -> {
+                        return false;
+                    }
+                    case HALTED -> {
+                        return true;
+                    }
+                }
+            }
+            return true;
+        }
 
-                    lastY = natPacket.y;
-                    computers.get(0L).inputQueue.add(natPacket);
+        private void park() {
+            scheduled.set(false);
+            // A packet delivered before the flag was cleared would have skipped wake(), so check again
+            if ((!inputQueue.isEmpty() || stopRequested) && scheduled.compareAndSet(false, true)) {
+                carrier.execute(this::step);
+                return;
+            }
+            tracker.release();
+        }
+
+        @Override
+        protected void refillInputs() {
+            if (!inputQueue.poll()) return;
+
+            addInput(inputQueue.x);
+            addInput(inputQueue.y);
+            if (tracker != null) {
+                tracker.release();
+            }
+        }
+
+        @Override
+        protected void produceLong(long value) {
+            switch (outputCount++) {
+                case 0 -> outputTarget = value;
+                case 1 -> outputX = value;
+                default -> {
+                    outputCount = 0;
+                    outputY = value;
+                    hasPending = true;
+                    sendPending();
                 }
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    return;
+            }
+        }
+
+        private boolean sendPending() {
+            if (handler.accept(outputTarget, outputX, outputY)) {
+                hasPending = false;
+            }
+            return !hasPending;
+        }
+    }
+
+    // Bounded lock-free queue of (x, y) pairs, any thread may put but only the owning computer polls
+    static class Mailbox {
+        private final long[] xs;
+        private final long[] ys;
+        // A slot is free for position p when its sequence is p, and holds a published pair when it is p + 1
+        private final AtomicLongArray sequences;
+        private final AtomicLong tail = new AtomicLong();
+        private final int mask;
+        private volatile long head;
+
+        long x;
+        long y;
+
+        Mailbox(int capacity) {
+            if (Integer.bitCount(capacity) != 1) {
+                throw new IllegalArgumentException("Capacity must be a power of two");
+            }
+            xs = new long[capacity];
+            ys = new long[capacity];
+            sequences = new AtomicLongArray(capacity);
+            for (var i = 0; i < capacity; i++) {
+                sequences.set(i, i);
+            }
+            mask = capacity - 1;
+        }
+
+        // Returns false when full, the consumer may be running on the calling thread so waiting could deadlock
+        boolean put(long x, long y) {
+            while (true) {
+                var position = tail.get();
+                var slot = (int) position & mask;
+                var sequence = sequences.get(slot);
+
+                if (sequence == position) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        xs[slot] = x;
+                        ys[slot] = y;
+                        // Volatile write publishes both values to the consumer
+                        sequences.set(slot, position + 1);
+                        return true;
+                    }
+                } else if (sequence < position) {
+                    return false;
                 }
             }
         }
 
-        private void stop() {
-            shouldRun = false;
-            computers.values().forEach(computer -> computer.halted = true);
+        // Moves the oldest pair into x and y, returns false when there is none
+        boolean poll() {
+            var position = head;
+            var slot = (int) position & mask;
+            if (sequences.get(slot) != position + 1) return false;
+
+            x = xs[slot];
+            y = ys[slot];
+            sequences.set(slot, position + xs.length);
+            head = position + 1;
+            return true;
+        }
+
+        boolean isEmpty() {
+            var position = head;
+            return sequences.get((int) position & mask) != position + 1;
+        }
+
+        // Approximate when read by other threads, includes pairs that are claimed but not yet published
+        long size() {
+            return Math.max(0, tail.get() - head);
+        }
+    }
+
+    static class Packet {
+        final long x;
+        final long y;
+
+        Packet(long x, long y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    static class Part01 implements PacketHandler {
+        private final Network network;
+        private boolean received;
+
+        Part01(Network network) {
+            this.network = network;
+        }
+
+        @Override
+        public synchronized boolean accept(long target, long x, long y) {
+            if (received) return true;
+
+            received = true;
+            System.out.println(y);
+            network.stop();
+            return true;
+        }
+    }
+
+    static class Part02 implements PacketHandler {
+        private final Network network;
+        private volatile Packet natPacket;
+        private long lastY = 0L;
+
+        Part02(Network network) {
+            this.network = network;
+        }
+
+        @Override
+        public boolean accept(long target, long x, long y) {
+            natPacket = new Packet(x, y);
+            return true;
+        }
+
+        @Override
+        public void onIdle() {
+            var packet = natPacket;
+            if (packet == null) return;
+            if (lastY == packet.y) {
+                System.out.println(packet.y);
+                network.stop();
+                return;
+            }
+
+            lastY = packet.y;
+            // Every mailbox is empty while the network is idle
+            if (!network.computer(0).deliver(packet.x, packet.y)) {
+                throw new IllegalStateException("Mailbox of an idle computer is full");
+            }
         }
     }
 }
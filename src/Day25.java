@@ -1,17 +1,12 @@
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayDeque;
-import java.util.Arrays;
 import java.util.Deque;
 import java.util.Scanner;
 
 public class Day25 {
     public static void main(String[] args) throws IOException {
-        var input = Files.readString(Paths.get("input25.txt")).trim();
-        var instructions = Arrays.stream(input.split(","))
-                .mapToLong(Long::parseLong)
-                .toArray();
+        var instructions = Day09.ProgramLoader.load(Paths.get("input25.txt"));
 
         var computer = new AsciiComputer(instructions);
         new Thread(computer::execute).start();